@@ -2,11 +2,14 @@ package org;
 
 import java.security.NoSuchAlgorithmException;
 
+import org.model.Wallet;
+import org.storage.Config;
 import org.terminal.CLI;
 
 public class Main {
 
     public static void main(String[] args) throws NoSuchAlgorithmException {
+        Wallet.setParallelThreshold(Config.getLong("wallet.parallel.threshold", 0));
         CLI cli = new CLI();
         while (true){
             cli.run();
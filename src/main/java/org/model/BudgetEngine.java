@@ -0,0 +1,122 @@
+package org.model;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Проверки бюджетов кошелька.
+ *
+ *        Все проверки читают готовые итоги ({@link WalletAggregates}):
+ *        бюджет и расходы категории, общие доходы, бюджеты и расходы, поэтому
+ *        отвечают за O(1) независимо от длины истории. Перед изменением
+ *        кошелька запоминается состояние затронутых категорий, после
+ *        изменения слушателям сообщается о пересечении порогов.
+ */
+final class BudgetEngine {
+
+    /** Порог предупреждения, процентов бюджета */
+    static final int WARNING_PERCENT = 80;
+
+    private final List<BudgetListener> listeners = new CopyOnWriteArrayList<>();
+
+    void addListener(BudgetListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(BudgetListener listener) {
+        listeners.remove(listener);
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    static BudgetStatus status(long planned, long spent) {
+        if (planned <= 0) {
+            return BudgetStatus.NO_BUDGET;
+        }
+        if (spent > planned) {
+            return BudgetStatus.EXCEEDED;
+        }
+        if (spent == planned) {
+            return BudgetStatus.REACHED;
+        }
+        return spent * 100 >= planned * WARNING_PERCENT ? BudgetStatus.WARNING : BudgetStatus.WITHIN;
+    }
+
+    static BudgetStatus status(WalletAggregates totals, String category) {
+        return status(totals.planned(category), totals.spent(category));
+    }
+
+    /**
+     * @see Wallet#isExistBudget(String, long, boolean)
+     */
+    static boolean breaksBudget(WalletAggregates totals, String category, long amount, boolean isPlanned) {
+        long planned = totals.planned(category);
+        long spent = totals.spent(category);
+        return (!isPlanned && planned > 0 && spent + amount > planned) || (isPlanned && spent > planned + amount);
+    }
+
+    /**
+     * @see Wallet#isExistIncome(String, long, boolean)
+     */
+    static boolean breaksIncome(WalletAggregates totals, long amount, boolean isPlanned) {
+        return (!isPlanned && totals.totalSpent() + amount > totals.totalIncome())
+                || (isPlanned && totals.totalIncome() < totals.totalPlanned() + amount);
+    }
+
+    /**
+     * Запоминает состояние категорий перед изменением
+     *
+     * @return снимок или null, если слушателей нет
+     */
+    Snapshot snapshot(WalletAggregates totals, Collection<String> categories) {
+        if (listeners.isEmpty()) {
+            return null;
+        }
+        Snapshot snapshot = new Snapshot(totals);
+        for (String category : categories) {
+            if (category != null) {
+                snapshot.statuses.putIfAbsent(category, status(totals, category));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Сообщает слушателям о переходах с момента снимка
+     */
+    void publish(WalletAggregates totals, Snapshot snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        snapshot.statuses.forEach((category, previous) -> {
+            BudgetStatus current = status(totals, category);
+            if (current != previous) {
+                listeners.forEach(listener -> listener.budgetChanged(category, previous, current));
+            }
+        });
+        boolean plannedExceeded = totals.totalIncome() < totals.totalPlanned();
+        boolean spentExceeded = totals.totalIncome() < totals.totalSpent();
+        if (plannedExceeded != snapshot.plannedExceeded || spentExceeded != snapshot.spentExceeded) {
+            listeners.forEach(listener -> listener.incomeChanged(plannedExceeded, spentExceeded));
+        }
+    }
+
+    /**
+     * Состояние бюджетов до изменения
+     */
+    static final class Snapshot {
+        private final Map<String, BudgetStatus> statuses = new LinkedHashMap<>();
+        private final boolean plannedExceeded;
+        private final boolean spentExceeded;
+
+        private Snapshot(WalletAggregates totals) {
+            plannedExceeded = totals.totalIncome() < totals.totalPlanned();
+            spentExceeded = totals.totalIncome() < totals.totalSpent();
+        }
+    }
+}
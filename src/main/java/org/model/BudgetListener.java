@@ -0,0 +1,29 @@
+package org.model;
+
+/**
+ * Слушатель пересечения порогов бюджета.
+ *
+ *        Кошелек сравнивает состояние затронутых изменением категорий до и
+ *        после изменения и сообщает только о переходах, например, когда
+ *        расходы категории впервые достигают 80% бюджета.
+ */
+public interface BudgetListener {
+
+    /**
+     * Состояние бюджета категории изменилось
+     *
+     * @param category категория
+     * @param previous состояние до изменения
+     * @param current  состояние после изменения
+     */
+    void budgetChanged(String category, BudgetStatus previous, BudgetStatus current);
+
+    /**
+     * Изменилось превышение общих доходов
+     *
+     * @param plannedExceeded бюджеты категорий больше доходов
+     * @param spentExceeded   расходы больше доходов
+     */
+    default void incomeChanged(boolean plannedExceeded, boolean spentExceeded) {
+    }
+}
@@ -0,0 +1,17 @@
+package org.model;
+
+/**
+ * Состояние бюджета категории расходов
+ */
+public enum BudgetStatus {
+    /** Бюджет категории не задан */
+    NO_BUDGET,
+    /** Расходы меньше 80% бюджета */
+    WITHIN,
+    /** Расходы не меньше 80% бюджета, но меньше бюджета */
+    WARNING,
+    /** Расходы равны бюджету */
+    REACHED,
+    /** Расходы больше бюджета */
+    EXCEEDED
+}
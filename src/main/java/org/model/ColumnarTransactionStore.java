@@ -0,0 +1,906 @@
+package org.model;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+
+/**
+ * Хранилище транзакций в параллельных массивах примитивов.
+ *
+ *        Вместо объекта на транзакцию хранятся столбцы: ID, суммы, коды типов,
+ *        номера категорий и время (микросекунды от эпохи, UTC). Названия
+ *        категорий хранятся один раз в словаре хранилища. Объекты
+ *        {@link Transaction} создаются только при обходе, а итоги кошелька
+ *        считаются циклом по массивам без создания объектов.
+ *
+ *        Транзакции обычно добавляются в хронологическом порядке, тогда
+ *        выборка за период находит границы двоичным поиском по столбцу
+ *        времени. Если порядок нарушен (например, после импорта), по
+ *        требованию строится индекс позиций, упорядоченных по времени.
+ *
+ *        Для каждой категории хранится список ее позиций (по возрастанию),
+ *        поэтому выборка по категории и удаление категории просматривают
+ *        только строки этой категории. Переименование категории, все
+ *        транзакции которой переходят в новую (еще не занятую) категорию,
+ *        меняет только запись словаря, строки не трогаются.
+ *
+ *        ID обычно возрастают по позициям, тогда транзакция по ID ищется
+ *        двоичным поиском, иначе - по индексу ID -> позиция.
+ *
+ *        Удаление помечает строку удаленной без сдвига остальных; когда
+ *        удаленных строк становится больше половины, живые строки
+ *        сдвигаются к началу одним проходом.
+ */
+public class ColumnarTransactionStore implements TransactionStore {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private static final byte NO_TYPE = -1;
+    private static final int NO_CATEGORY = -1;
+    private static final long NO_TIME = TransactionVisitor.NO_TIME;
+    private static final long DAY_MICROS = 86_400_000_000L;
+
+    /** Строк на одну задачу параллельного подсчета итогов */
+    private static final int PARALLEL_CHUNK = 16_384;
+
+    /** Уплотнение не запускается ради нескольких удаленных строк */
+    private static final int COMPACT_MIN_REMOVED = 32;
+
+    private long[] ids;
+    private long[] amounts;
+    private byte[] types;
+    private int[] categoryIds;
+    private long[] micros;
+
+    /** Занятых строк, включая удаленные */
+    private int slots;
+
+    /** Живых транзакций */
+    private int live;
+
+    /** Удаленные строки: место освобождается при уплотнении */
+    private final BitSet removed = new BitSet();
+
+    /** Позиции живых строк по номеру, если есть удаленные (null - не построен) */
+    private int[] livePositions;
+
+    /** true если ID строго возрастают по позициям: поиск по ID двоичный */
+    private boolean idsAscending = true;
+
+    /** ID -> позиция, если ID не упорядочены (null - не построен) */
+    private Map<Long, Integer> slotById;
+
+    /** true если время транзакций не убывает по позициям */
+    private boolean chronological = true;
+
+    /** Позиции в порядке времени, если {@link #chronological} false (null - не построен) */
+    private Rows timeOrder;
+
+    /** Счетчик изменений для обнаружения изменения во время обхода */
+    private int modifications;
+
+    /** Словарь категорий: номер -> название и обратно */
+    private final List<String> categories = new ArrayList<>();
+    private final Map<String, Integer> categoryNumbers = new HashMap<>();
+
+    /** Позиции транзакций каждой категории (индекс - номер категории) */
+    private final List<Rows> categoryRows = new ArrayList<>();
+
+    /** Число живых транзакций каждой категории по кодам типов (индекс 0 - без типа) */
+    private final List<int[]> categoryTypeCounts = new ArrayList<>();
+
+    public ColumnarTransactionStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity начальная емкость столбцов
+     */
+    public ColumnarTransactionStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new long[capacity];
+        amounts = new long[capacity];
+        types = new byte[capacity];
+        categoryIds = new int[capacity];
+        micros = new long[capacity];
+    }
+
+    /**
+     * @param transactions транзакции (копируются в столбцы)
+     */
+    public ColumnarTransactionStore(Iterable<Transaction> transactions) {
+        this(transactions instanceof Collection<?> collection ? collection.size() : INITIAL_CAPACITY);
+        for (Transaction transaction : transactions) {
+            add(transaction);
+        }
+    }
+
+    @Override
+    public int size() {
+        return live;
+    }
+
+    /**
+     * @return число удаленных строк, ожидающих уплотнения
+     */
+    public int removedCount() {
+        return slots - live;
+    }
+
+    @Override
+    public void add(Transaction transaction) {
+        append(transaction.getId(), transaction.getCategory(), transaction.getTransactionType(),
+                transaction.getAmount(), toMicros(transaction.getTimestamp()));
+    }
+
+    /**
+     * Добавляет транзакцию в конец по значениям полей, без объекта транзакции
+     *
+     * @see TransactionVisitor
+     */
+    void append(long id, String category, TransactionType type, long amount, long epochMicros) {
+        if (slots == ids.length) {
+            grow();
+        }
+        ids[slots] = id;
+        amounts[slots] = amount;
+        types[slots] = typeCode(type);
+        categoryIds[slots] = categoryNumber(category);
+        micros[slots] = epochMicros;
+        if (categoryIds[slots] != NO_CATEGORY) {
+            categoryRows.get(categoryIds[slots]).add(slots);
+            categoryTypeCounts.get(categoryIds[slots])[types[slots] + 1]++;
+        }
+        if (slots > 0 && micros[slots] < micros[slots - 1]) {
+            chronological = false;
+        }
+        if (slots > 0 && ids[slots] <= ids[slots - 1]) {
+            idsAscending = false;
+        }
+        if (slotById != null) {
+            slotById.put(ids[slots], slots);
+        }
+        timeOrder = null;
+        slots++;
+        live++;
+        modifications++;
+    }
+
+    /**
+     * Копия хранилища в столбцах: поля переносятся посетителем, объекты
+     * транзакций не создаются (для столбцовых хранилищ)
+     *
+     * @param source исходное хранилище
+     * @return копия
+     */
+    public static ColumnarTransactionStore copyOf(TransactionStore source) {
+        ColumnarTransactionStore copy = new ColumnarTransactionStore(source.size());
+        source.visit(copy::append);
+        return copy;
+    }
+
+    /**
+     * Без удаленных строк номер совпадает с позицией, иначе позиция берется
+     * из таблицы живых строк: она строится одним проходом при первом
+     * доступе по номеру после изменения, поэтому обход по номерам линейный
+     */
+    @Override
+    public Transaction get(int index) {
+        if (index < 0 || index >= live) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        if (slots == live) {
+            return read(index);
+        }
+        int[] positions = livePositions;
+        if (positions == null || positions.length != live) {
+            positions = new int[live];
+            int next = 0;
+            for (int i = removed.nextClearBit(0); i < slots; i = removed.nextClearBit(i + 1)) {
+                positions[next++] = i;
+            }
+            livePositions = positions;
+        }
+        return read(positions[index]);
+    }
+
+    /**
+     * Обход циклом по столбцам без создания транзакций
+     */
+    @Override
+    public void visit(TransactionVisitor visitor) {
+        int expected = modifications;
+        for (int i = removed.nextClearBit(0); i < slots; i = removed.nextClearBit(i + 1)) {
+            visitor.visit(ids[i], category(i), types[i] == NO_TYPE ? null : TYPES[types[i]], amounts[i], micros[i]);
+            if (expected != modifications) {
+                throw new ConcurrentModificationException();
+            }
+        }
+    }
+
+    /**
+     * Удаленные строки помечаются, остальные строки не сдвигаются
+     */
+    @Override
+    public boolean removeIf(Predicate<Transaction> filter) {
+        boolean any = false;
+        for (int i = removed.nextClearBit(0); i < slots; i = removed.nextClearBit(i + 1)) {
+            if (filter.test(read(i))) {
+                markRemoved(i);
+                any = true;
+            }
+        }
+        return finishRemoval(any);
+    }
+
+    @Override
+    public Transaction find(long id) {
+        int slot = slotOf(id);
+        return slot < 0 ? null : read(slot);
+    }
+
+    /**
+     * Удаление по ID: поиск позиции без прохода и пометка строки удаленной
+     */
+    @Override
+    public Transaction removeById(long id) {
+        int slot = slotOf(id);
+        if (slot < 0) {
+            return null;
+        }
+        Transaction transaction = read(slot);
+        markRemoved(slot);
+        finishRemoval(true);
+        return transaction;
+    }
+
+    /**
+     * Удаляет транзакции категории заданного типа: проверяются только
+     * строки категории.
+     */
+    @Override
+    public boolean removeCategory(String category, TransactionType type) {
+        Integer number = categoryNumbers.get(category);
+        if (number == null) {
+            return false;
+        }
+        Rows rows = categoryRows.get(number);
+        boolean any = false;
+        for (int i = 0; i < rows.size; i++) {
+            int position = rows.positions[i];
+            if (!removed.get(position) && types[position] == typeCode(type)) {
+                markRemoved(position);
+                any = true;
+            }
+        }
+        return finishRemoval(any);
+    }
+
+    /**
+     * Если все транзакции категории переходят в новую, еще не занятую
+     * категорию, меняется только запись словаря (O(1) при любом числе
+     * транзакций). Иначе номер категории меняется только у ее строк.
+     */
+    @Override
+    public void renameCategory(String oldCategory, String type, String newCategory) {
+        Integer number = categoryNumbers.get(oldCategory);
+        if (number == null || oldCategory.equals(newCategory)) {
+            return;
+        }
+        Integer existing = categoryNumbers.get(newCategory);
+        if ((existing == null || liveCount(existing) == 0) && movesAll(number, type)) {
+            // номер занятой ранее категории без транзакций больше не используется
+            categories.set(number, newCategory);
+            categoryNumbers.remove(oldCategory);
+            categoryNumbers.put(newCategory, number);
+            modifications++;
+            return;
+        }
+        int target = categoryNumber(newCategory);
+        int[] sourceCounts = categoryTypeCounts.get(number);
+        int[] targetCounts = categoryTypeCounts.get(target);
+        Rows rows = categoryRows.get(number);
+        Rows staying = new Rows();
+        Rows moving = new Rows();
+        for (int i = 0; i < rows.size; i++) {
+            int position = rows.positions[i];
+            if (type == null || types[position] != NO_TYPE
+                    && type.equalsIgnoreCase(TYPES[types[position]].getName())) {
+                categoryIds[position] = target;
+                moving.add(position);
+                if (!removed.get(position)) {
+                    sourceCounts[types[position] + 1]--;
+                    targetCounts[types[position] + 1]++;
+                }
+            } else {
+                staying.add(position);
+            }
+        }
+        categoryRows.set(number, staying);
+        categoryRows.set(target, Rows.merge(categoryRows.get(target), moving));
+        modifications++;
+    }
+
+    /**
+     * @return true если все живые транзакции категории подходят под тип
+     */
+    private boolean movesAll(int number, String type) {
+        if (type == null) {
+            return true;
+        }
+        int[] counts = categoryTypeCounts.get(number);
+        if (counts[0] != 0) {
+            return false;
+        }
+        for (TransactionType transactionType : TYPES) {
+            if (counts[transactionType.ordinal() + 1] != 0 && !type.equalsIgnoreCase(transactionType.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int liveCount(int number) {
+        int count = 0;
+        for (int value : categoryTypeCounts.get(number)) {
+            count += value;
+        }
+        return count;
+    }
+
+    @Override
+    public void updateAll(Consumer<Transaction> action) {
+        chronological = true;
+        idsAscending = true;
+        for (int i = 0; i < slots; i++) {
+            if (!removed.get(i)) {
+                Transaction transaction = read(i);
+                action.accept(transaction);
+                write(i, transaction);
+            }
+            if (i > 0 && micros[i] < micros[i - 1]) {
+                chronological = false;
+            }
+            if (i > 0 && ids[i] <= ids[i - 1]) {
+                idsAscending = false;
+            }
+        }
+        slotById = null;
+        reindex(0);
+        recount();
+        timeOrder = null;
+        modifications++;
+    }
+
+    @Override
+    public Iterator<Transaction> iterator() {
+        return new Iterator<>() {
+            private final int expected = modifications;
+            private int index = removed.nextClearBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return index < slots;
+            }
+
+            @Override
+            public Transaction next() {
+                if (expected != modifications) {
+                    throw new ConcurrentModificationException();
+                }
+                if (index >= slots) {
+                    throw new NoSuchElementException();
+                }
+                Transaction transaction = read(index);
+                index = removed.nextClearBit(index + 1);
+                return transaction;
+            }
+        };
+    }
+
+    /**
+     * Границы периода ищутся двоичным поиском по позициям категории (или
+     * всем позициям), затем отрезок читается с конца до набора
+     * {@code limit} подходящих транзакций.
+     */
+    @Override
+    public List<Transaction> select(String category, LocalDateTime from, LocalDateTime to,
+            Predicate<Transaction> filter, int limit) {
+        ArrayDeque<Transaction> result = new ArrayDeque<>();
+        Rows sequence = null; // null - все позиции по порядку
+        if (category != null) {
+            Integer number = categoryNumbers.get(category);
+            if (number == null) {
+                return new ArrayList<>();
+            }
+            sequence = chronological ? categoryRows.get(number) : Rows.filter(timeOrder(), categoryIds, number);
+        } else if (!chronological) {
+            sequence = timeOrder();
+        }
+        int length = sequence == null ? slots : sequence.size;
+        int start = from == null ? 0 : lowerBound(sequence, length, toMicros(from));
+        int end = to == null ? length : lowerBound(sequence, length, toMicros(to) + 1);
+        for (int i = end - 1; i >= start && (limit <= 0 || result.size() < limit); i--) {
+            int position = sequence == null ? i : sequence.positions[i];
+            if (removed.get(position)) {
+                continue;
+            }
+            Transaction transaction = read(position);
+            if (transaction.getTimestamp() == null && (from != null || to != null)) {
+                continue;
+            }
+            if (filter.test(transaction)) {
+                result.addFirst(transaction);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * @return первый номер последовательности, у которого время не меньше заданного
+     */
+    private int lowerBound(Rows sequence, int length, long value) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (micros[sequence == null ? middle : sequence.positions[middle]] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Индекс позиций, упорядоченных по времени (при равном времени - по позиции)
+     */
+    private Rows timeOrder() {
+        if (timeOrder == null) {
+            timeOrder = new Rows(IntStream.range(0, slots).boxed()
+                    .sorted(Comparator.<Integer>comparingLong(i -> micros[i]))
+                    .mapToInt(Integer::intValue)
+                    .toArray());
+        }
+        return timeOrder;
+    }
+
+    /**
+     * Добавляет все транзакции в итоги циклом по столбцам, без создания транзакций
+     *
+     * @param parallel true - отрезки строк считаются параллельно (fork/join)
+     *                 в частные суммы по номерам категорий, которые затем
+     *                 сливаются; результат совпадает с последовательным
+     */
+    void aggregate(WalletAggregates aggregates, boolean parallel) {
+        if (parallel && slots > PARALLEL_CHUNK) {
+            ForkJoinPool.commonPool().invoke(new SumTask(0, slots)).addTo(aggregates);
+            return;
+        }
+        for (int i = removed.nextClearBit(0); i < slots; i = removed.nextClearBit(i + 1)) {
+            if (types[i] != NO_TYPE) {
+                aggregates.add(ids[i], category(i), TYPES[types[i]], amounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Итоги по дням и месяцам циклом по столбцам
+     *
+     * @param parallel true - отрезки строк считаются параллельно и сливаются по порядку
+     */
+    WalletRollups rollup(boolean parallel) {
+        if (parallel && slots > PARALLEL_CHUNK) {
+            return ForkJoinPool.commonPool().invoke(new RollupTask(0, slots));
+        }
+        WalletRollups rollups = new WalletRollups();
+        rollup(rollups, 0, slots);
+        return rollups;
+    }
+
+    private void rollup(WalletRollups rollups, int from, int to) {
+        long currentDay = Long.MIN_VALUE;
+        LocalDate day = null;
+        for (int i = removed.nextClearBit(from); i < to; i = removed.nextClearBit(i + 1)) {
+            if (micros[i] == NO_TIME || types[i] == NO_TYPE) {
+                continue;
+            }
+            long epochDay = Math.floorDiv(micros[i], DAY_MICROS);
+            if (epochDay != currentDay) {
+                currentDay = epochDay;
+                day = LocalDate.ofEpochDay(epochDay);
+            }
+            rollups.add(day, category(i), TYPES[types[i]], amounts[i]);
+        }
+    }
+
+    /**
+     * @return позиция живой транзакции с ID или -1
+     */
+    private int slotOf(long id) {
+        int slot;
+        if (idsAscending) {
+            slot = Arrays.binarySearch(ids, 0, slots, id);
+        } else {
+            if (slotById == null) {
+                slotById = new HashMap<>();
+                for (int i = 0; i < slots; i++) {
+                    slotById.put(ids[i], i);
+                }
+            }
+            slot = slotById.getOrDefault(id, -1);
+        }
+        return slot < 0 || removed.get(slot) ? -1 : slot;
+    }
+
+    private void markRemoved(int position) {
+        removed.set(position);
+        live--;
+        livePositions = null;
+        if (categoryIds[position] != NO_CATEGORY) {
+            categoryTypeCounts.get(categoryIds[position])[types[position] + 1]--;
+        }
+    }
+
+    /**
+     * Завершает удаление: если удаленных строк больше половины,
+     * живые строки сдвигаются к началу (амортизированно O(1) на удаление)
+     */
+    private boolean finishRemoval(boolean any) {
+        if (!any) {
+            return false;
+        }
+        if (removedCount() > COMPACT_MIN_REMOVED && removedCount() > slots / 2) {
+            compact();
+        }
+        modifications++;
+        return true;
+    }
+
+    /**
+     * Сдвигает живые строки к началу, относительный порядок не меняется
+     */
+    private void compact() {
+        int kept = 0;
+        for (int i = removed.nextClearBit(0); i < slots; i = removed.nextClearBit(i + 1)) {
+            if (kept != i) {
+                ids[kept] = ids[i];
+                amounts[kept] = amounts[i];
+                types[kept] = types[i];
+                categoryIds[kept] = categoryIds[i];
+                micros[kept] = micros[i];
+            }
+            kept++;
+        }
+        slots = kept;
+        removed.clear();
+        livePositions = null;
+        reindex(0);
+        timeOrder = null;
+        slotById = null;
+    }
+
+    /**
+     * Перестраивает списки позиций категорий, начиная с позиции {@code from}
+     */
+    private void reindex(int from) {
+        for (Rows rows : categoryRows) {
+            rows.truncateFrom(from);
+        }
+        for (int i = from; i < slots; i++) {
+            if (categoryIds[i] != NO_CATEGORY) {
+                categoryRows.get(categoryIds[i]).add(i);
+            }
+        }
+    }
+
+    /**
+     * Пересчитывает число живых транзакций категорий по типам
+     */
+    private void recount() {
+        for (int[] counts : categoryTypeCounts) {
+            Arrays.fill(counts, 0);
+        }
+        for (int i = removed.nextClearBit(0); i < slots; i = removed.nextClearBit(i + 1)) {
+            if (categoryIds[i] != NO_CATEGORY) {
+                categoryTypeCounts.get(categoryIds[i])[types[i] + 1]++;
+            }
+        }
+    }
+
+    private static byte typeCode(TransactionType type) {
+        return type == null ? NO_TYPE : (byte) type.ordinal();
+    }
+
+    private String category(int index) {
+        int number = categoryIds[index];
+        return number == NO_CATEGORY ? null : categories.get(number);
+    }
+
+    private Transaction read(int index) {
+        Transaction transaction = new Transaction();
+        transaction.setId(ids[index]);
+        transaction.setAmount(amounts[index]);
+        transaction.setCategory(category(index));
+        transaction.setTransactionType(types[index] == NO_TYPE ? null : TYPES[types[index]]);
+        transaction.setTimestamp(TransactionVisitor.toDateTime(micros[index]));
+        return transaction;
+    }
+
+    private void write(int index, Transaction transaction) {
+        ids[index] = transaction.getId();
+        amounts[index] = transaction.getAmount();
+        types[index] = typeCode(transaction.getTransactionType());
+        categoryIds[index] = categoryNumber(transaction.getCategory());
+        micros[index] = toMicros(transaction.getTimestamp());
+    }
+
+    private int categoryNumber(String category) {
+        if (category == null) {
+            return NO_CATEGORY;
+        }
+        Integer number = categoryNumbers.get(category);
+        if (number == null) {
+            number = categories.size();
+            categories.add(category);
+            categoryNumbers.put(category, number);
+            categoryRows.add(new Rows());
+            categoryTypeCounts.add(new int[TYPES.length + 1]);
+        }
+        return number;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        amounts = Arrays.copyOf(amounts, capacity);
+        types = Arrays.copyOf(types, capacity);
+        categoryIds = Arrays.copyOf(categoryIds, capacity);
+        micros = Arrays.copyOf(micros, capacity);
+    }
+
+    private static long toMicros(LocalDateTime timestamp) {
+        return TransactionVisitor.toMicros(timestamp);
+    }
+
+    /**
+     * Частные суммы отрезка строк по номерам категорий (последний номер -
+     * транзакции без категории). Для порядка категорий в итогах хранится
+     * первая позиция категории каждого вида, бюджеты - списком позиций.
+     */
+    private final class CategorySums {
+        private final int nullCategory = categories.size();
+        private final long[] income = new long[nullCategory + 1];
+        private final long[] spent = new long[nullCategory + 1];
+        private final int[] incomeCount = new int[nullCategory + 1];
+        private final int[] spentCount = new int[nullCategory + 1];
+        private final int[] plannedCount = new int[nullCategory + 1];
+        private final int[] firstIncome = new int[nullCategory + 1];
+        private final int[] firstSpent = new int[nullCategory + 1];
+        private final int[] firstOutcome = new int[nullCategory + 1];
+        private Rows planned = new Rows();
+
+        CategorySums(int from, int to) {
+            Arrays.fill(firstIncome, Integer.MAX_VALUE);
+            Arrays.fill(firstSpent, Integer.MAX_VALUE);
+            Arrays.fill(firstOutcome, Integer.MAX_VALUE);
+            for (int i = removed.nextClearBit(from); i < to; i = removed.nextClearBit(i + 1)) {
+                if (types[i] == NO_TYPE) {
+                    continue;
+                }
+                int c = categoryIds[i] == NO_CATEGORY ? nullCategory : categoryIds[i];
+                switch (TYPES[types[i]]) {
+                    case INCOME -> {
+                        income[c] += amounts[i];
+                        if (incomeCount[c]++ == 0) {
+                            firstIncome[c] = i;
+                        }
+                    }
+                    case OUTCOME_SPENT -> {
+                        spent[c] += amounts[i];
+                        if (spentCount[c]++ == 0) {
+                            firstSpent[c] = i;
+                        }
+                        firstOutcome[c] = Math.min(firstOutcome[c], i);
+                    }
+                    case OUTCOME_PLANNED -> {
+                        planned.add(i);
+                        plannedCount[c]++;
+                        firstOutcome[c] = Math.min(firstOutcome[c], i);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Добавляет суммы следующего отрезка
+         */
+        CategorySums merge(CategorySums next) {
+            for (int c = 0; c <= nullCategory; c++) {
+                income[c] += next.income[c];
+                spent[c] += next.spent[c];
+                incomeCount[c] += next.incomeCount[c];
+                spentCount[c] += next.spentCount[c];
+                plannedCount[c] += next.plannedCount[c];
+                firstIncome[c] = Math.min(firstIncome[c], next.firstIncome[c]);
+                firstSpent[c] = Math.min(firstSpent[c], next.firstSpent[c]);
+                firstOutcome[c] = Math.min(firstOutcome[c], next.firstOutcome[c]);
+            }
+            planned = Rows.merge(planned, next.planned);
+            return this;
+        }
+
+        /**
+         * Переносит суммы в итоги в порядке первого появления категорий
+         */
+        void addTo(WalletAggregates aggregates) {
+            for (int c : order(firstIncome)) {
+                aggregates.addIncome(name(c), income[c], incomeCount[c]);
+            }
+            for (int c : order(firstSpent)) {
+                aggregates.addSpent(name(c), spent[c], spentCount[c]);
+            }
+            for (int c : order(firstOutcome)) {
+                aggregates.addOutcomeCount(name(c), spentCount[c] + plannedCount[c]);
+            }
+            for (int k = 0; k < planned.size; k++) {
+                int position = planned.positions[k];
+                aggregates.addBudget(ids[position], category(position), amounts[position]);
+            }
+        }
+
+        private String name(int c) {
+            return c == nullCategory ? null : categories.get(c);
+        }
+
+        private int[] order(int[] first) {
+            return IntStream.rangeClosed(0, nullCategory)
+                    .filter(c -> first[c] != Integer.MAX_VALUE)
+                    .boxed()
+                    .sorted(Comparator.comparingInt(c -> first[c]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+    }
+
+    /**
+     * Параллельный подсчет итогов: отрезок делится пополам до
+     * {@link #PARALLEL_CHUNK} строк, суммы сливаются слева направо
+     */
+    private final class SumTask extends RecursiveTask<CategorySums> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        SumTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected CategorySums compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                return new CategorySums(from, to);
+            }
+            int middle = (from + to) >>> 1;
+            SumTask left = new SumTask(from, middle);
+            left.fork();
+            CategorySums right = new SumTask(middle, to).compute();
+            return left.join().merge(right);
+        }
+    }
+
+    /**
+     * Параллельный подсчет итогов по дням и месяцам
+     */
+    private final class RollupTask extends RecursiveTask<WalletRollups> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        RollupTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected WalletRollups compute() {
+            if (to - from <= PARALLEL_CHUNK) {
+                WalletRollups rollups = new WalletRollups();
+                rollup(rollups, from, to);
+                return rollups;
+            }
+            int middle = (from + to) >>> 1;
+            RollupTask left = new RollupTask(from, middle);
+            left.fork();
+            WalletRollups right = new RollupTask(middle, to).compute();
+            WalletRollups result = left.join();
+            result.merge(right);
+            return result;
+        }
+    }
+
+    /**
+     * Растущий массив позиций по возрастанию
+     */
+    private static final class Rows {
+        private int[] positions;
+        private int size;
+
+        Rows() {
+            this.positions = new int[4];
+        }
+
+        Rows(int[] positions) {
+            this.positions = positions;
+            this.size = positions.length;
+        }
+
+        void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        /**
+         * Отбрасывает позиции не меньше заданной
+         */
+        void truncateFrom(int position) {
+            while (size > 0 && positions[size - 1] >= position) {
+                size--;
+            }
+        }
+
+        /**
+         * @return позиции последовательности с заданным номером категории
+         */
+        static Rows filter(Rows sequence, int[] categoryIds, int number) {
+            Rows result = new Rows();
+            for (int i = 0; i < sequence.size; i++) {
+                if (categoryIds[sequence.positions[i]] == number) {
+                    result.add(sequence.positions[i]);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return слияние двух упорядоченных списков позиций
+         */
+        static Rows merge(Rows left, Rows right) {
+            Rows result = new Rows(new int[Math.max(left.size + right.size, 4)]);
+            result.size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < left.size || j < right.size) {
+                if (j == right.size || i < left.size && left.positions[i] < right.positions[j]) {
+                    result.positions[result.size++] = left.positions[i++];
+                } else {
+                    result.positions[result.size++] = right.positions[j++];
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.model;
+
+/**
+ * Итоги одной категории за период (день или месяц):
+ * суммы и число транзакций по каждому типу.
+ */
+public class PeriodTotals {
+
+    private static final TransactionType[] TYPES = TransactionType.values();
+
+    private final long[] amounts = new long[TYPES.length];
+    private final int[] counts = new int[TYPES.length];
+
+    /**
+     * @param type тип транзакций
+     * @return сумма транзакций типа за период
+     */
+    public long getAmount(TransactionType type) {
+        return amounts[type.ordinal()];
+    }
+
+    /**
+     * @param type тип транзакций
+     * @return число транзакций типа за период
+     */
+    public int getCount(TransactionType type) {
+        return counts[type.ordinal()];
+    }
+
+    void add(TransactionType type, long amount) {
+        amounts[type.ordinal()] += amount;
+        counts[type.ordinal()]++;
+    }
+
+    void remove(TransactionType type, long amount) {
+        amounts[type.ordinal()] -= amount;
+        counts[type.ordinal()]--;
+    }
+
+    /**
+     * Добавляет все итоги другого отрезка
+     */
+    void addAll(PeriodTotals other) {
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] += other.amounts[i];
+            counts[i] += other.counts[i];
+        }
+    }
+
+    /**
+     * Переносит итоги типа в другие итоги
+     */
+    void moveTo(PeriodTotals target, TransactionType type) {
+        target.amounts[type.ordinal()] += amounts[type.ordinal()];
+        target.counts[type.ordinal()] += counts[type.ordinal()];
+        amounts[type.ordinal()] = 0;
+        counts[type.ordinal()] = 0;
+    }
+
+    /**
+     * @return true если за период не осталось транзакций
+     */
+    boolean isEmpty() {
+        for (int count : counts) {
+            if (count != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    PeriodTotals copy() {
+        PeriodTotals copy = new PeriodTotals();
+        System.arraycopy(amounts, 0, copy.amounts, 0, amounts.length);
+        System.arraycopy(counts, 0, copy.counts, 0, counts.length);
+        return copy;
+    }
+}
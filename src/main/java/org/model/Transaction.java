@@ -9,7 +9,7 @@ import java.time.LocalDateTime;
  */
 public class Transaction   {
 
-    private int id; // id
+    private long id; // id (выдается кошельком, не меняется)
     private String category; // категория (например, "Зарплата", "Продукты")
     private long amount; // сумма транзакции (long из-за выполнения операций)
     private TransactionType transactionType; // тип транзакции
@@ -94,14 +94,14 @@ public class Transaction   {
     /**
      * @return Уникальный идентификатор транзакции
      */
-    public int getId() {
+    public long getId() {
         return id;
     }
 
     /**
      * @param id Уникальный идентификатор транзакции
      */
-    public void setId(int id) {
+    public void setId(long id) {
         this.id = id;
     }
 
@@ -0,0 +1,175 @@
+package org.model;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Хранилище транзакций кошелька.
+ *
+ *        Кошелек работает с транзакциями только через этот интерфейс, поэтому
+ *        транзакции могут лежать как в списке в памяти, так и вне кучи
+ *        (например, в отображенном в память файле). Обход возвращает
+ *        транзакции в порядке добавления; изменение полученных объектов
+ *        не сохраняется - для этого есть {@link #updateAll(Consumer)}.
+ */
+public interface TransactionStore extends Iterable<Transaction> {
+
+    /**
+     * @return число транзакций
+     */
+    int size();
+
+    /**
+     * Добавляет транзакцию в конец.
+     *
+     * @param transaction транзакция
+     */
+    void add(Transaction transaction);
+
+    /**
+     * Удаляет транзакции, удовлетворяющие условию.
+     *
+     * @param filter условие удаления
+     * @return true если что-то удалено
+     */
+    boolean removeIf(Predicate<Transaction> filter);
+
+    /**
+     * Транзакция по порядковому номеру обхода. Реализация по умолчанию
+     * проходит транзакции до нужной.
+     *
+     * @param index номер транзакции (с 0)
+     * @return транзакция
+     * @throws IndexOutOfBoundsException если номера нет
+     */
+    default Transaction get(int index) {
+        if (index >= 0) {
+            int i = 0;
+            for (Transaction transaction : this) {
+                if (i++ == index) {
+                    return transaction;
+                }
+            }
+        }
+        throw new IndexOutOfBoundsException(index);
+    }
+
+    /**
+     * Обходит транзакции в порядке добавления, передавая посетителю поля
+     * транзакций. Реализация по умолчанию создает транзакции при обходе,
+     * столбцовые хранилища читают поля прямо из столбцов.
+     *
+     * @param visitor посетитель
+     */
+    default void visit(TransactionVisitor visitor) {
+        for (Transaction transaction : this) {
+            visitor.visit(transaction.getId(), transaction.getCategory(), transaction.getTransactionType(),
+                    transaction.getAmount(), TransactionVisitor.toMicros(transaction.getTimestamp()));
+        }
+    }
+
+    /**
+     * Поиск транзакции по ID. Реализация по умолчанию проходит по всем
+     * транзакциям.
+     *
+     * @param id ID транзакции
+     * @return транзакция или null
+     */
+    default Transaction find(long id) {
+        for (Transaction transaction : this) {
+            if (transaction.getId() == id) {
+                return transaction;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Удаляет транзакцию по ID.
+     *
+     * @param id ID транзакции
+     * @return удаленная транзакция или null, если ее нет
+     */
+    default Transaction removeById(long id) {
+        Transaction transaction = find(id);
+        if (transaction != null) {
+            removeIf(tx -> tx.getId() == id);
+        }
+        return transaction;
+    }
+
+    /**
+     * Обходит транзакции и сохраняет сделанные в них изменения.
+     *
+     * @param action изменение транзакции
+     */
+    void updateAll(Consumer<Transaction> action);
+
+    /**
+     * Удаляет транзакции категории заданного типа.
+     *
+     * @param category категория
+     * @param type     тип транзакций
+     * @return true если что-то удалено
+     */
+    default boolean removeCategory(String category, TransactionType type) {
+        return removeIf(tx -> category.equals(tx.getCategory()) && tx.getTransactionType() == type);
+    }
+
+    /**
+     * Переименовывает категорию у транзакций заданного типа.
+     *
+     * @param oldCategory текущее название
+     * @param type        income/outcome или null для всех типов
+     * @param newCategory новое название
+     */
+    default void renameCategory(String oldCategory, String type, String newCategory) {
+        updateAll(tx -> {
+            if (oldCategory.equals(tx.getCategory())
+                    && (type == null || type.equalsIgnoreCase(tx.getTransactionType().getName()))) {
+                tx.setCategory(newCategory);
+            }
+        });
+    }
+
+    /**
+     * Выборка транзакций за период: последние по времени {@code limit}
+     * подходящих транзакций в хронологическом порядке (транзакции без
+     * времени - раньше остальных, при равном времени - в порядке
+     * добавления). Реализация по умолчанию проходит по всем транзакциям;
+     * хранилища с индексами по времени и категориям читают только нужный
+     * отрезок.
+     *
+     * @param category категория (null - все категории)
+     * @param from     начало периода включительно (null - без ограничения)
+     * @param to       конец периода включительно (null - без ограничения)
+     * @param filter   дополнительное условие
+     * @param limit    максимальное число транзакций (0 - без ограничения)
+     * @return подходящие транзакции
+     */
+    default List<Transaction> select(String category, LocalDateTime from, LocalDateTime to,
+            Predicate<Transaction> filter, int limit) {
+        List<Transaction> result = new ArrayList<>();
+        for (Transaction transaction : this) {
+            LocalDateTime time = transaction.getTimestamp();
+            if (category != null && !category.equals(transaction.getCategory())
+                    || (from != null || to != null) && time == null
+                    || from != null && time.isBefore(from)
+                    || to != null && time.isAfter(to)
+                    || !filter.test(transaction)) {
+                continue;
+            }
+            result.add(transaction);
+        }
+        // сортировка устойчива: при равном времени сохраняется порядок добавления
+        result.sort(Comparator.comparingLong(transaction -> TransactionVisitor.toMicros(transaction.getTimestamp())));
+        if (limit > 0 && result.size() > limit) {
+            return new ArrayList<>(result.subList(result.size() - limit, result.size()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,47 @@
+package org.model;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Обход транзакций без создания объектов {@link Transaction}.
+ *
+ *        Хранилище передает поля транзакции по одной строке; время передается
+ *        числом микросекунд от эпохи (UTC), {@link #NO_TIME} - время не задано.
+ *        Столбцовое хранилище вызывает посетителя прямо по массивам, поэтому
+ *        обход, фильтр и подсчет итогов не создают мусора.
+ */
+@FunctionalInterface
+public interface TransactionVisitor {
+
+    /** Время транзакции не задано */
+    long NO_TIME = Long.MIN_VALUE;
+
+    /**
+     * @param id          ID транзакции
+     * @param category    категория (может быть null)
+     * @param type        тип транзакции (может быть null)
+     * @param amount      сумма
+     * @param epochMicros время в микросекундах от эпохи (UTC) или {@link #NO_TIME}
+     */
+    void visit(long id, String category, TransactionType type, long amount, long epochMicros);
+
+    /**
+     * @param timestamp время (может быть null)
+     * @return микросекунды от эпохи (UTC) или {@link #NO_TIME}
+     */
+    static long toMicros(LocalDateTime timestamp) {
+        return timestamp == null ? NO_TIME
+                : timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + timestamp.getNano() / 1_000;
+    }
+
+    /**
+     * @param epochMicros микросекунды от эпохи (UTC) или {@link #NO_TIME}
+     * @return время или null
+     */
+    static LocalDateTime toDateTime(long epochMicros) {
+        return epochMicros == NO_TIME ? null
+                : LocalDateTime.ofEpochSecond(Math.floorDiv(epochMicros, 1_000_000L),
+                        (int) Math.floorMod(epochMicros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+}
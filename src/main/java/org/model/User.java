@@ -1,10 +1,21 @@
 package org.model;
 
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 /**
  * Класс, представляющий пользователя системы управления финансами.
  *
  *        Хранит данные о пользователе, его кошельке, имени пользователя и
- *        пароле.
+ *        пароле. Хранилище может отдать пользователя без кошелька, с
+ *        загрузчиком: тогда кошелек читается при первом обращении к
+ *        {@link #getWallet()}, а вход и проверка имени при регистрации
+ *        не разбирают историю транзакций.
+ *
+ *        Пользователь считает свои изменения (версия) и помнит версии себя и
+ *        кошелька, записанные в хранилище: несохраненные изменения видны по
+ *        {@link #isDirty()}, и запись в хранилище нужна только им.
  */
 public class User {
 
@@ -17,9 +28,21 @@ public class User {
     /** Соль для хэширования пароля */
     private String salt;
 
-    /** Кошелек пользователя */
+    /** Кошелек пользователя (null - еще не загружен) */
     private Wallet wallet;
 
+    /** Загрузчик кошелька, пока кошелек не прочитан (null - кошелек в памяти) */
+    private Supplier<Wallet> walletLoader;
+
+    /** Версия пользователя (число изменений имени, пароля, соли и замен кошелька) */
+    private long version;
+
+    /** Версия пользователя, записанная в хранилище (-1 - не записан) */
+    private long flushedVersion = -1;
+
+    /** Версия кошелька, записанная в хранилище (-1 - не записан) */
+    private long flushedWalletVersion = -1;
+
     /**
      * Конструктор без аргументов.
      *
@@ -63,8 +86,9 @@ public class User {
     }
 
     /** @param username Устанавливает имя пользователя */
-    public void setUsername(String username) {
+    public synchronized void setUsername(String username) {
         this.username = username;
+        version++;
     }
 
     /** @return Пароль пользователя */
@@ -73,18 +97,103 @@ public class User {
     }
 
     /** @param password Устанавливает пароль пользователя */
-    public void setPassword(String password) {
+    public synchronized void setPassword(String password) {
         this.password = password;
+        version++;
     }
 
-    /** @return Кошелек пользователя */
+    /** @return Кошелек пользователя (загружается при первом обращении) */
     public Wallet getWallet() {
-        return wallet;
+        Supplier<Wallet> loader;
+        synchronized (this) {
+            if (walletLoader == null) {
+                return wallet;
+            }
+            loader = walletLoader;
+        }
+        // загрузчик вызывается вне блокировки пользователя: он может ждать
+        // блокировок хранилища, которые держит поток записи этого пользователя
+        Wallet loaded = loader.get();
+        synchronized (this) {
+            if (walletLoader == loader) {
+                wallet = loaded;
+                walletLoader = null;
+                flushedWalletVersion = loaded.getVersion(); // прочитан из хранилища
+            }
+            return wallet;
+        }
+    }
+
+    /**
+     * Кошелек без загрузки в пользователя: незагруженный кошелек читается
+     * загрузчиком и не запоминается (например, при записи копии снимка).
+     * @return кошелек пользователя
+     */
+    public Wallet readWallet() {
+        Supplier<Wallet> loader;
+        synchronized (this) {
+            if (walletLoader == null) {
+                return wallet;
+            }
+            loader = walletLoader;
+        }
+        return loader.get();
     }
 
     /** @param wallet Устанавливает кошелек пользователя */
-    public void setWallet(Wallet wallet) {
+    public synchronized void setWallet(Wallet wallet) {
         this.wallet = wallet;
+        this.walletLoader = null;
+        version++;
+    }
+
+    /**
+     * Откладывает чтение кошелька до первого обращения к нему
+     * @param loader загрузчик кошелька
+     */
+    @JsonIgnore
+    public synchronized void setWalletLoader(Supplier<Wallet> loader) {
+        this.wallet = null;
+        this.walletLoader = loader;
+    }
+
+    /** @return true если кошелек уже в памяти */
+    @JsonIgnore
+    public synchronized boolean isWalletLoaded() {
+        return walletLoader == null;
+    }
+
+    /** @return Версия пользователя (число изменений без учета кошелька) */
+    @JsonIgnore
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /** @return Версия кошелька в памяти или -1, если кошелек не загружен */
+    @JsonIgnore
+    public synchronized long getWalletVersion() {
+        return walletLoader == null ? wallet.getVersion() : -1;
+    }
+
+    /**
+     * @return true если пользователь или кошелек изменились после последней
+     *         записи в хранилище (незагруженный кошелек не изменялся)
+     */
+    @JsonIgnore
+    public synchronized boolean isDirty() {
+        return version != flushedVersion
+                || (walletLoader == null && wallet.getVersion() != flushedWalletVersion);
+    }
+
+    /**
+     * Отмечает версии, записанные в хранилище (журнал или снимок).
+     * Отметки только растут: запись более старой копии их не уменьшает.
+     * @param version       записанная версия пользователя (-1 - без изменений)
+     * @param walletVersion записанная версия кошелька (-1 - без изменений)
+     */
+    public synchronized void markFlushed(long version, long walletVersion) {
+        flushedVersion = Math.max(flushedVersion, version);
+        flushedWalletVersion = Math.max(flushedWalletVersion, walletVersion);
     }
 
     /** @return Соль для хэширования пароля */
@@ -93,8 +202,43 @@ public class User {
     }
 
     /** @param salt Устанавливает соль для хэширования пароля */
-    public void setSalt(String salt) {
+    public synchronized void setSalt(String salt) {
         this.salt = salt;
+        version++;
+    }
+
+    /**
+     * Глубокая копия пользователя вместе с кошельком и отметками записи.
+     * Измененный после записи кошелек копируется сразу. Записанный
+     * кошелек не копируется: копия получает загрузчик (или копирование
+     * кошелька в памяти), и кошелек читается, только если он понадобится.
+     * У самого пользователя незагруженный кошелек остается незагруженным.
+     * @return копия пользователя
+     */
+    public User copy() {
+        User copy = new User();
+        Wallet current;
+        synchronized (this) {
+            copy.username = username;
+            copy.password = password;
+            copy.salt = salt;
+            copy.version = version;
+            copy.flushedVersion = flushedVersion;
+            copy.flushedWalletVersion = flushedWalletVersion;
+            if (walletLoader != null) {
+                copy.walletLoader = walletLoader;
+                copy.wallet = null;
+                return copy;
+            }
+            current = wallet;
+        }
+        if (current.getVersion() != copy.flushedWalletVersion) {
+            copy.wallet = current.copy();
+        } else {
+            copy.walletLoader = current::copy;
+            copy.wallet = null;
+        }
+        return copy;
     }
 
     /**
@@ -102,9 +246,10 @@ public class User {
      * @param hash Новый хэш пароля.
      * @param salt Новая соль для хэширования.
      */
-    public void changePassword(String hash, String salt) {
+    public synchronized void changePassword(String hash, String salt) {
         this.password = hash;
         this.salt = salt;
+        version++;
     }
 
 }
@@ -1,19 +1,52 @@
 package org.model;
 
-import java.util.ArrayList;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.AbstractList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 /**
  * Класс, представляющий кошелек пользователя.
+ * Транзакции хранятся в {@link TransactionStore}: по умолчанию в столбцах
+ * примитивов в памяти ({@link ColumnarTransactionStore}).
+ * Итоги (суммы по категориям и типам, бюджеты) поддерживаются при каждом
+ * изменении, поэтому их чтение не проходит по транзакциям.
+ * Проверки бюджетов ({@link BudgetEngine}) читают эти итоги, слушатели
+ * ({@link BudgetListener}) узнают о пересечении порогов бюджета.
+ * ID транзакций выдаются по возрастанию из {@code lastTransactionId} и
+ * не меняются при удалении других транзакций.
+ * Каждое изменение увеличивает версию кошелька: по ней журнал изменений
+ * понимает, какие записи уже содержатся в снимке.
  **/
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Wallet {
-    private List<Transaction> transactions = new ArrayList<>();
-    private int lastTransactionId = 1;
+    /** Число транзакций, начиная с которого итоги считаются параллельно (0 - никогда) */
+    private static volatile long parallelThreshold;
+
+    private TransactionStore transactions = new ColumnarTransactionStore();
+    private long lastTransactionId = 1;
+    private long version;
+
+    /** Итоги по транзакциям (null - еще не посчитаны) */
+    private WalletAggregates aggregates;
+
+    /** Итоги по дням и месяцам (null - еще не посчитаны) */
+    private WalletRollups rollups;
+
+    /** Проверки бюджетов и слушатели порогов */
+    private final BudgetEngine budgets = new BudgetEngine();
 
 
     public Wallet() {
@@ -21,22 +54,153 @@ public class Wallet {
     }
 
     public Wallet(List<Transaction> transactions) {
-        this.transactions = transactions != null ? transactions : new ArrayList<>();
+        this.transactions = transactions != null ? new ColumnarTransactionStore(transactions) : new ColumnarTransactionStore();
     }
 
     /**
      * Добавляет транзакцию в кошелек с автоматическим назначением ID.
      * 
      * @param transaction транзакция для добавления
-     * @throws IllegalArgumentException если сумма не положительная
+     * @throws IllegalArgumentException если сумма не положительная или не указан тип
      */
-    public void addTransaction(Transaction transaction) {
+    public synchronized void addTransaction(Transaction transaction) {
         if (transaction.getAmount() < 0) {
             throw new IllegalArgumentException("Сумма должна быть положительной");
         }
+        if (transaction.getTransactionType() == null) {
+            throw new IllegalArgumentException("Не указан тип транзакции");
+        }
+        BudgetEngine.Snapshot snapshot = snapshot(Collections.singletonList(transaction.getCategory()));
         transaction.setId(lastTransactionId);
         transactions.add(transaction);
+        if (aggregates != null) {
+            aggregates.add(transaction);
+        }
+        if (rollups != null) {
+            rollups.add(transaction);
+        }
         lastTransactionId++;
+        version++;
+        publish(snapshot);
+    }
+
+    /**
+     * Добавляет пакет транзакций одним изменением кошелька: сначала
+     * проверяется весь пакет, затем транзакции получают ID подряд.
+     *
+     * @param batch транзакции для добавления
+     * @throws IllegalArgumentException если транзакция пакета некорректна
+     *                                  (тогда пакет не добавляется)
+     */
+    public synchronized void addTransactions(List<Transaction> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            Transaction transaction = batch.get(i);
+            if (transaction.getAmount() < 0) {
+                throw new IllegalArgumentException("Строка " + (i + 1) + ": сумма должна быть положительной");
+            }
+            if (transaction.getCategory() == null || transaction.getCategory().isBlank()) {
+                throw new IllegalArgumentException("Строка " + (i + 1) + ": не указана категория");
+            }
+            if (transaction.getTransactionType() == null) {
+                throw new IllegalArgumentException("Строка " + (i + 1) + ": не указан тип транзакции");
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        BudgetEngine.Snapshot snapshot = budgets.hasListeners()
+                ? snapshot(batch.stream().map(Transaction::getCategory).distinct().toList())
+                : null;
+        for (Transaction transaction : batch) {
+            transaction.setId(lastTransactionId++);
+            transactions.add(transaction);
+            if (aggregates != null) {
+                aggregates.add(transaction);
+            }
+            if (rollups != null) {
+                rollups.add(transaction);
+            }
+        }
+        version++;
+        publish(snapshot);
+    }
+
+    /**
+     * Удаляет транзакцию по ID. ID остальных транзакций не меняются.
+     *
+     * @param id ID транзакции
+     * @return true если транзакция найдена и удалена
+     */
+    public synchronized boolean removeTransaction(long id) {
+        Transaction target = budgets.hasListeners() ? transactions.find(id) : null;
+        BudgetEngine.Snapshot snapshot = target == null ? null
+                : snapshot(Collections.singletonList(target.getCategory()));
+        Transaction removed = transactions.removeById(id);
+        if (removed == null) {
+            return false;
+        }
+        if (aggregates != null) {
+            aggregates.remove(removed);
+        }
+        if (rollups != null) {
+            rollups.remove(removed);
+        }
+        version++;
+        publish(snapshot);
+        return true;
+    }
+
+    /**
+     * Удаляет все транзакции указанной категории и типа.
+     *
+     * @param category категория
+     * @param type     тип транзакций
+     */
+    public synchronized void removeTransactionsByCategoryAndType(String category, TransactionType type) {
+        BudgetEngine.Snapshot snapshot = snapshot(List.of(category));
+        if (transactions.removeCategory(category, type)) {
+            if (aggregates != null) {
+                aggregates.removeCategory(category, type);
+            }
+            if (rollups != null) {
+                rollups.removeCategory(category, type);
+            }
+        }
+        version++;
+        publish(snapshot);
+    }
+
+    /**
+     * Переименовывает категорию во всех транзакциях указанного типа.
+     *
+     * @param oldCategory старое имя категории
+     * @param type        income/outcome или null для всех типов
+     * @param newCategory новое имя категории
+     */
+    public synchronized void renameCategory(String oldCategory, String type, String newCategory) {
+        BudgetEngine.Snapshot snapshot = snapshot(List.of(oldCategory, newCategory));
+        transactions.renameCategory(oldCategory, type, newCategory);
+        if (aggregates != null) {
+            aggregates.rename(oldCategory, type, newCategory);
+        }
+        if (rollups != null) {
+            rollups.rename(oldCategory, type, newCategory);
+        }
+        version++;
+        publish(snapshot);
+    }
+
+    /**
+     * @return снимок состояния бюджетов категорий или null, если слушателей нет
+     */
+    private BudgetEngine.Snapshot snapshot(List<String> categories) {
+        return budgets.hasListeners() ? budgets.snapshot(aggregates(), categories) : null;
+    }
+
+    private void publish(BudgetEngine.Snapshot snapshot) {
+        if (snapshot != null) {
+            budgets.publish(aggregates(), snapshot);
+        }
     }
 
     /**
@@ -48,10 +212,7 @@ public class Wallet {
      * @return true если операция превысит бюджет категории
      */
     public boolean isExistBudget(String category, long amount, boolean isPlanned) {
-        long planned = getPlannedOutcomeByCategory().getOrDefault(category, 0L);
-        long spent = getSpentOutcomeByCategory().getOrDefault(category, 0L);
-
-        return (!isPlanned && planned > 0 && spent + amount > planned) || (isPlanned && spent > planned + amount);
+        return BudgetEngine.breaksBudget(aggregates(), category, amount, isPlanned);
     }
 
 
@@ -64,92 +225,80 @@ public class Wallet {
      * @return true если операция превысит общие доходы
      */
     public boolean isExistIncome(String category, long amount, boolean isPlanned) {
-        long planned = getTotalOutcomePlanned();
-        long spent = getTotalOutcomeSpent();
-        long income = getTotalIncome();
+        return BudgetEngine.breaksIncome(aggregates(), amount, isPlanned);
+    }
+
+    /**
+     * @param category категория расходов
+     * @return состояние бюджета категории
+     */
+    public BudgetStatus getBudgetStatus(String category) {
+        return BudgetEngine.status(aggregates(), category);
+    }
 
-        return (!isPlanned && spent + amount > income) || (isPlanned && income < planned + amount);
+    /**
+     * Подписывает слушателя на пересечение порогов бюджета
+     *
+     * @param listener слушатель
+     */
+    public void addBudgetListener(BudgetListener listener) {
+        budgets.addListener(listener);
+    }
+
+    /**
+     * @param listener слушатель
+     */
+    public void removeBudgetListener(BudgetListener listener) {
+        budgets.removeListener(listener);
     }
 
 
     public Map<String, Long> getIncomeByCategory() {
-        return transactions.stream()
-                .filter(tx -> tx.getTransactionType() == TransactionType.INCOME)
-                .collect(Collectors.groupingBy(
-                        Transaction::getCategory,
-                        Collectors.summingLong(Transaction::getAmount)));
+        return new HashMap<>(aggregates().incomeByCategory());
     }
 
     public long getTotalIncome() {
-        return transactions.stream()
-                .filter(tx -> tx.getTransactionType() == TransactionType.INCOME)
-                .mapToLong(Transaction::getAmount)
-                .sum();
+        return aggregates().totalIncome();
     }
 
 
     public Map<String, Long> getPlannedOutcomeByCategory() {
-        Map<String, Long> result = new HashMap<>();
-        for (Transaction tx : transactions) {
-            if (tx.getTransactionType() == TransactionType.OUTCOME_PLANNED) {
-                result.put(tx.getCategory(), tx.getAmount());
-            }
-        }
-        return result;
+        return aggregates().plannedByCategory();
     }
 
     public Map<String, Long> getSpentOutcomeByCategory() {
-        return transactions.stream()
-                .filter(tx -> tx.getTransactionType() == TransactionType.OUTCOME_SPENT)
-                .collect(Collectors.groupingBy(
-                        Transaction::getCategory,
-                        Collectors.summingLong(Transaction::getAmount)));
+        return new HashMap<>(aggregates().spentByCategory());
     }
 
     public long getTotalOutcomePlanned() {
-        return getPlannedOutcomeByCategory().values().stream().mapToLong(Long::longValue).sum();
+        return aggregates().totalPlanned();
     }
 
     public long getTotalOutcomeSpent() {
-        return getSpentOutcomeByCategory().values().stream().mapToLong(Long::longValue).sum();
+        return aggregates().totalSpent();
     }
 
 
     public List<String> getIncomeCategories() {
-        return transactions.stream()
-                .filter(tx -> tx.getTransactionType() == TransactionType.INCOME)
-                .map(Transaction::getCategory)
-                .distinct()
-                .collect(Collectors.toList());
+        return aggregates().incomeCategories();
     }
 
     public List<String> getOutcomeCategories() {
-        return transactions.stream()
-                .filter(tx -> tx.getTransactionType() == TransactionType.OUTCOME_PLANNED ||
-                        tx.getTransactionType() == TransactionType.OUTCOME_SPENT)
-                .map(Transaction::getCategory)
-                .distinct()
-                .collect(Collectors.toList());
+        return aggregates().outcomeCategories();
     }
 
     public boolean hasIncomeCategory(String category) {
-        return transactions.stream()
-                .anyMatch(tx -> tx.getTransactionType() == TransactionType.INCOME &&
-                        tx.getCategory().equals(category));
+        return aggregates().hasIncomeCategory(category);
     }
 
     public boolean hasOutcomeCategory(String category) {
-        return transactions.stream()
-                .anyMatch(tx -> (tx.getTransactionType() == TransactionType.OUTCOME_PLANNED ||
-                        tx.getTransactionType() == TransactionType.OUTCOME_SPENT) &&
-                        tx.getCategory().equals(category));
+        return aggregates().hasOutcomeCategory(category);
     }
 
 
     public long getRemainingBudget(String category) {
-        long planned = getPlannedOutcomeByCategory().getOrDefault(category, 0L);
-        long spent = getSpentOutcomeByCategory().getOrDefault(category, 0L);
-        return planned - spent;
+        WalletAggregates totals = aggregates();
+        return totals.planned(category) - totals.spent(category);
     }
 
     public boolean isBudgetExceeded(String category) {
@@ -157,54 +306,249 @@ public class Wallet {
     }
 
     public boolean isBudgetWarning(String category) {
-        long planned = getPlannedOutcomeByCategory().getOrDefault(category, 0L);
-        long spent = getSpentOutcomeByCategory().getOrDefault(category, 0L);
-        return planned > 0 && (double) spent / planned >= 0.8 && (double) spent / planned < 1.0;
+        return getBudgetStatus(category) == BudgetStatus.WARNING;
     }
 
     public boolean isBudgetExceededPlanned() {
-        long planned = getTotalOutcomePlanned();
-        long income = getTotalIncome();
-        return income < planned;
+        WalletAggregates totals = aggregates();
+        return totals.totalIncome() < totals.totalPlanned();
     }
     public boolean isBudgetExceededSpent() {
-        long spent = getTotalOutcomeSpent();
-        long income = getTotalIncome();
-        return income < spent;
+        WalletAggregates totals = aggregates();
+        return totals.totalIncome() < totals.totalSpent();
     }
 
 
     /**
-     * Пересчитывает ID всех транзакций (используется при импорте данных).
-     * Назначает последовательные ID начиная с 1.
+     * Пересчитывает ID всех транзакций подряд начиная с 1.
+     * Нужен только для журналов старого формата, где удаление
+     * сопровождалось пересчетом ID.
      */
-    public void calculateTranscactionsIDs(){
-        int currentLastId = 1;
+    public synchronized void calculateTranscactionsIDs(){
+        long[] currentLastId = { 1 };
 
         // Назначаем новые ID всем транзакциям
-        for (var transaction : transactions) {
-            transaction.setId(currentLastId); // Сбрасываем ID
-            currentLastId += 1; // Назначаем новый ID
-        }
+        transactions.updateAll(transaction -> {
+            transaction.setId(currentLastId[0]); // Сбрасываем ID
+            currentLastId[0] += 1; // Назначаем новый ID
+        });
         
     }
 
+    /**
+     * Выдает новые ID транзакциям без ID или с повторяющимся ID (например,
+     * после импорта), остальные ID не меняются. Следующий выдаваемый ID
+     * становится больше всех имеющихся.
+     *
+     * @return число транзакций, получивших новый ID
+     */
+    public synchronized int assignMissingIds() {
+        Set<Long> seen = new HashSet<>();
+        long max = 0;
+        boolean complete = true;
+        for (Transaction transaction : transactions) {
+            complete &= transaction.getId() > 0 && seen.add(transaction.getId());
+            max = Math.max(max, transaction.getId());
+        }
+        lastTransactionId = Math.max(lastTransactionId, max + 1);
+        if (complete) {
+            return 0;
+        }
+        seen.clear();
+        int[] assigned = { 0 };
+        transactions.updateAll(transaction -> {
+            if (transaction.getId() <= 0 || !seen.add(transaction.getId())) {
+                transaction.setId(lastTransactionId++);
+                assigned[0]++;
+            }
+        });
+        return assigned[0];
+    }
+
 
+    /**
+     * Транзакции кошелька только для чтения, без копирования: список
+     * читает хранилище при обращении и отражает последующие изменения.
+     * Транзакции изменяются только методами кошелька.
+     *
+     * @return неизменяемое представление транзакций
+     */
     public List<Transaction> getTransactions() {
-        return new ArrayList<>(transactions);
+        return new TransactionsView();
+    }
+
+    /**
+     * Заменяет все транзакции (для чтения кошелька из файла)
+     *
+     * @param transactions транзакции (копируются в хранилище)
+     */
+    public synchronized void setTransactions(List<Transaction> transactions) {
+        this.transactions = transactions != null ? new ColumnarTransactionStore(transactions) : new ColumnarTransactionStore();
+        this.aggregates = null;
+        this.rollups = null;
+    }
+
+    /**
+     * Последовательный обход транзакций без копирования в список
+     * 
+     * @return поток транзакций
+     */
+    public Stream<Transaction> streamTransactions() {
+        return StreamSupport.stream(transactions.spliterator(), false);
+    }
+
+    /**
+     * Обход транзакций без создания объектов транзакций: поля передаются
+     * посетителю прямо из хранилища
+     *
+     * @param visitor посетитель
+     */
+    public synchronized void forEachTransaction(TransactionVisitor visitor) {
+        transactions.visit(visitor);
+    }
+
+    /**
+     * Поиск транзакции по ID без прохода по кошельку
+     *
+     * @param id ID транзакции
+     * @return транзакция или null
+     */
+    public synchronized Transaction getTransaction(long id) {
+        return transactions.find(id);
     }
 
-    public void setTransactions(List<Transaction> transactions) {
-        this.transactions = transactions != null ? transactions : new ArrayList<>();
+    /**
+     * Последние транзакции за период в хронологическом порядке
+     *
+     * @param category категория (null - все категории)
+     * @param from     начало периода включительно (null - без ограничения)
+     * @param to       конец периода включительно (null - без ограничения)
+     * @param filter   дополнительное условие (например, тип)
+     * @param limit    максимальное число транзакций (0 - все)
+     * @return найденные транзакции
+     */
+    public synchronized List<Transaction> findTransactions(String category, LocalDateTime from,
+            LocalDateTime to, Predicate<Transaction> filter, int limit) {
+        return transactions.select(category, from, to, filter, limit);
     }
 
-    public int getLastTransactionId() {
+    /**
+     * @return Хранилище транзакций кошелька
+     */
+    @JsonIgnore
+    public TransactionStore getTransactionStore() {
+        return transactions;
+    }
+
+    /**
+     * @param store Хранилище транзакций кошелька (например, отображенный в память файл)
+     */
+    @JsonIgnore
+    public synchronized void setTransactionStore(TransactionStore store) {
+        this.transactions = store;
+        this.aggregates = null;
+        this.rollups = null;
+    }
+
+    /**
+     * Порог параллельного подсчета итогов: кошельки, в которых транзакций
+     * не меньше порога, при полном пересчете итогов (после загрузки или
+     * импорта, для отчетов) считаются на всех ядрах. Результат совпадает
+     * с последовательным подсчетом.
+     *
+     * @param threshold число транзакций (0 - всегда последовательно)
+     */
+    public static void setParallelThreshold(long threshold) {
+        parallelThreshold = Math.max(threshold, 0);
+    }
+
+    private boolean isParallel() {
+        long threshold = parallelThreshold;
+        return threshold > 0 && transactions.size() >= threshold;
+    }
+
+    /**
+     * Итоги кошелька: считаются одним проходом при первом чтении,
+     * дальше поддерживаются при каждом изменении
+     */
+    private synchronized WalletAggregates aggregates() {
+        if (aggregates == null) {
+            aggregates = WalletAggregates.of(transactions, isParallel());
+        }
+        return aggregates;
+    }
+
+    /**
+     * Итоги по дням или месяцам за период
+     *
+     * @param monthly  true - по месяцам, false - по дням
+     * @param from     первый день периода (null - с начала истории)
+     * @param to       последний день периода (null - до конца истории)
+     * @param category категория (null - все категории)
+     * @return период (день или первый день месяца) -> категория -> итоги
+     */
+    public synchronized SortedMap<LocalDate, Map<String, PeriodTotals>> getReport(boolean monthly, LocalDate from,
+            LocalDate to, String category) {
+        if (rollups == null) {
+            rollups = WalletRollups.of(transactions, isParallel());
+        }
+        return rollups.report(monthly, from, to, category);
+    }
+
+
+    public long getLastTransactionId() {
         return lastTransactionId;
     }
 
-    public void setLastTransactionId(int lastTransactionId) {
+    public void setLastTransactionId(long lastTransactionId) {
         this.lastTransactionId = lastTransactionId;
     }
 
+    /**
+     * @return Версия кошелька (число изменений)
+     */
+    public long getVersion() {
+        return version;
+    }
 
-}
\ No newline at end of file
+    /**
+     * @param version Версия кошелька
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Глубокая копия кошелька в памяти (транзакции копируются)
+     * 
+     * @return копия кошелька
+     */
+    public synchronized Wallet copy() {
+        Wallet copy = new Wallet();
+        copy.transactions = ColumnarTransactionStore.copyOf(transactions);
+        copy.lastTransactionId = lastTransactionId;
+        copy.version = version;
+        return copy;
+    }
+
+    /**
+     * Представление транзакций хранилища в виде списка только для чтения
+     */
+    private final class TransactionsView extends AbstractList<Transaction> {
+
+        @Override
+        public Transaction get(int index) {
+            return transactions.get(index);
+        }
+
+        @Override
+        public int size() {
+            return transactions.size();
+        }
+
+        @Override
+        public Iterator<Transaction> iterator() {
+            return transactions.iterator();
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package org.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BinaryOperator;
+
+/**
+ * Итоги кошелька, поддерживаемые при каждом изменении.
+ *
+ *        Хранит суммы доходов и фактических расходов по категориям и
+ *        всего, число транзакций каждой категории и бюджеты категорий.
+ *        Бюджетом категории считается последний установленный планируемый
+ *        расход, поэтому для категории хранятся все бюджеты по ID (ID
+ *        выдаются по возрастанию): при удалении последнего действует
+ *        предыдущий.
+ */
+final class WalletAggregates {
+
+    private long totalIncome;
+    private long totalSpent;
+    private long totalPlanned;
+
+    private final Map<String, Long> incomeByCategory = new LinkedHashMap<>();
+    private final Map<String, Long> spentByCategory = new LinkedHashMap<>();
+
+    /** Бюджеты категории: ID транзакции -> сумма (действует последний) */
+    private final Map<String, TreeMap<Long, Long>> plannedByCategory = new LinkedHashMap<>();
+
+    /** Число транзакций доходов / расходов по категориям (порядок - первое появление) */
+    private final Map<String, Integer> incomeCounts = new LinkedHashMap<>();
+    private final Map<String, Integer> outcomeCounts = new LinkedHashMap<>();
+
+    /** Число фактических расходов по категориям */
+    private final Map<String, Integer> spentCounts = new HashMap<>();
+
+    /**
+     * Итоги по всем транзакциям (один проход)
+     */
+    static WalletAggregates of(Iterable<Transaction> transactions) {
+        return of(transactions, false);
+    }
+
+    /**
+     * Итоги по всем транзакциям
+     *
+     * @param parallel true - столбцовое хранилище считается параллельно
+     *                 (результат совпадает с последовательным подсчетом)
+     */
+    static WalletAggregates of(Iterable<Transaction> transactions, boolean parallel) {
+        WalletAggregates aggregates = new WalletAggregates();
+        if (transactions instanceof ColumnarTransactionStore columns) {
+            columns.aggregate(aggregates, parallel);
+            return aggregates;
+        }
+        if (transactions instanceof TransactionStore store) {
+            store.visit((id, category, type, amount, epochMicros) -> aggregates.add(id, category, type, amount));
+            return aggregates;
+        }
+        for (Transaction transaction : transactions) {
+            aggregates.add(transaction);
+        }
+        return aggregates;
+    }
+
+    void add(Transaction transaction) {
+        add(transaction.getId(), transaction.getCategory(), transaction.getTransactionType(),
+                transaction.getAmount());
+    }
+
+    /**
+     * Добавляет транзакцию в итоги. Транзакции без типа (например, из
+     * импортированного или исправленного вручную файла) в итоги не входят.
+     */
+    void add(long id, String category, TransactionType type, long amount) {
+        if (type == null) {
+            return;
+        }
+        switch (type) {
+            case INCOME -> addIncome(category, amount, 1);
+            case OUTCOME_SPENT -> {
+                addSpent(category, amount, 1);
+                addOutcomeCount(category, 1);
+            }
+            case OUTCOME_PLANNED -> {
+                addBudget(id, category, amount);
+                addOutcomeCount(category, 1);
+            }
+        }
+    }
+
+    /**
+     * Добавляет доходы категории (сумму и число транзакций)
+     */
+    void addIncome(String category, long amount, int count) {
+        totalIncome += amount;
+        incomeByCategory.merge(category, amount, Long::sum);
+        incomeCounts.merge(category, count, Integer::sum);
+    }
+
+    /**
+     * Добавляет фактические расходы категории (сумму и число транзакций)
+     */
+    void addSpent(String category, long amount, int count) {
+        totalSpent += amount;
+        spentByCategory.merge(category, amount, Long::sum);
+        spentCounts.merge(category, count, Integer::sum);
+    }
+
+    /**
+     * Добавляет число транзакций расходов категории
+     */
+    void addOutcomeCount(String category, int count) {
+        outcomeCounts.merge(category, count, Integer::sum);
+    }
+
+    /**
+     * Добавляет бюджет категории (без счетчика расходов)
+     */
+    void addBudget(long id, String category, long amount) {
+        TreeMap<Long, Long> budgets = plannedByCategory.computeIfAbsent(category, c -> new TreeMap<>());
+        long before = lastOrZero(budgets);
+        budgets.put(id, amount);
+        totalPlanned += lastOrZero(budgets) - before;
+    }
+
+    /**
+     * Убирает транзакцию из итогов
+     */
+    void remove(Transaction transaction) {
+        String category = transaction.getCategory();
+        long amount = transaction.getAmount();
+        if (transaction.getTransactionType() == null) {
+            return; // в итоги не входила
+        }
+        switch (transaction.getTransactionType()) {
+            case INCOME -> {
+                totalIncome -= amount;
+                subtract(incomeByCategory, category, amount);
+                if (decrement(incomeCounts, category)) {
+                    incomeByCategory.remove(category);
+                }
+            }
+            case OUTCOME_SPENT -> {
+                totalSpent -= amount;
+                subtract(spentByCategory, category, amount);
+                if (decrement(spentCounts, category)) {
+                    spentByCategory.remove(category);
+                }
+                decrement(outcomeCounts, category);
+            }
+            case OUTCOME_PLANNED -> {
+                TreeMap<Long, Long> budgets = plannedByCategory.get(category);
+                if (budgets == null || !budgets.containsKey(transaction.getId())) {
+                    return;
+                }
+                long before = lastOrZero(budgets);
+                budgets.remove(transaction.getId());
+                totalPlanned += lastOrZero(budgets) - before;
+                if (budgets.isEmpty()) {
+                    plannedByCategory.remove(category);
+                }
+                decrement(outcomeCounts, category);
+            }
+        }
+    }
+
+    /**
+     * Переименование категории без прохода по транзакциям.
+     *
+     * @param type income/outcome или null для всех типов
+     */
+    void rename(String oldCategory, String type, String newCategory) {
+        boolean income = type == null || "income".equalsIgnoreCase(type);
+        boolean outcome = type == null || "outcome".equalsIgnoreCase(type);
+        if (oldCategory.equals(newCategory)) {
+            return;
+        }
+        if (income) {
+            move(incomeByCategory, oldCategory, newCategory, Long::sum);
+            move(incomeCounts, oldCategory, newCategory, Integer::sum);
+        }
+        if (outcome) {
+            move(spentByCategory, oldCategory, newCategory, Long::sum);
+            move(spentCounts, oldCategory, newCategory, Integer::sum);
+            move(outcomeCounts, oldCategory, newCategory, Integer::sum);
+            TreeMap<Long, Long> budgets = plannedByCategory.remove(oldCategory);
+            TreeMap<Long, Long> target = plannedByCategory.get(newCategory);
+            if (budgets != null && target == null) {
+                plannedByCategory.put(newCategory, budgets);
+            } else if (budgets != null) {
+                long before = lastOrZero(budgets) + lastOrZero(target);
+                target.putAll(budgets);
+                totalPlanned += lastOrZero(target) - before;
+            }
+        }
+    }
+
+    /**
+     * Убирает из итогов все транзакции категории заданного типа
+     */
+    void removeCategory(String category, TransactionType type) {
+        if (type == null) {
+            return;
+        }
+        switch (type) {
+            case INCOME -> {
+                totalIncome -= income(category);
+                incomeByCategory.remove(category);
+                incomeCounts.remove(category);
+            }
+            case OUTCOME_SPENT -> {
+                totalSpent -= spent(category);
+                spentByCategory.remove(category);
+                Integer count = spentCounts.remove(category);
+                decrement(outcomeCounts, category, count == null ? 0 : count);
+            }
+            case OUTCOME_PLANNED -> {
+                totalPlanned -= planned(category);
+                TreeMap<Long, Long> budgets = plannedByCategory.remove(category);
+                decrement(outcomeCounts, category, budgets == null ? 0 : budgets.size());
+            }
+        }
+    }
+
+    long totalIncome() {
+        return totalIncome;
+    }
+
+    long totalSpent() {
+        return totalSpent;
+    }
+
+    long totalPlanned() {
+        return totalPlanned;
+    }
+
+    long income(String category) {
+        return incomeByCategory.getOrDefault(category, 0L);
+    }
+
+    long spent(String category) {
+        return spentByCategory.getOrDefault(category, 0L);
+    }
+
+    long planned(String category) {
+        return lastOrZero(plannedByCategory.get(category));
+    }
+
+    boolean hasIncomeCategory(String category) {
+        return incomeCounts.containsKey(category);
+    }
+
+    boolean hasOutcomeCategory(String category) {
+        return outcomeCounts.containsKey(category);
+    }
+
+    Map<String, Long> incomeByCategory() {
+        return Collections.unmodifiableMap(incomeByCategory);
+    }
+
+    Map<String, Long> spentByCategory() {
+        return Collections.unmodifiableMap(spentByCategory);
+    }
+
+    Map<String, Long> plannedByCategory() {
+        Map<String, Long> result = new HashMap<>();
+        plannedByCategory.forEach((category, budgets) -> result.put(category, lastOrZero(budgets)));
+        return result;
+    }
+
+    List<String> incomeCategories() {
+        return new ArrayList<>(incomeCounts.keySet());
+    }
+
+    List<String> outcomeCategories() {
+        return new ArrayList<>(outcomeCounts.keySet());
+    }
+
+    private void subtract(Map<String, Long> sums, String category, long amount) {
+        sums.computeIfPresent(category, (c, sum) -> sum - amount);
+    }
+
+    /**
+     * Уменьшает счетчик категории и убирает категорию без транзакций
+     *
+     * @return true если в категории не осталось транзакций
+     */
+    private static boolean decrement(Map<String, Integer> counts, String category) {
+        Integer count = counts.get(category);
+        if (count == null || count <= 1) {
+            counts.remove(category);
+            return true;
+        }
+        counts.put(category, count - 1);
+        return false;
+    }
+
+    private static void decrement(Map<String, Integer> counts, String category, int amount) {
+        if (amount > 0 && counts.merge(category, -amount, Integer::sum) <= 0) {
+            counts.remove(category);
+        }
+    }
+
+    private static <V> void move(Map<String, V> map, String from, String to, BinaryOperator<V> merge) {
+        V value = map.remove(from);
+        if (value != null) {
+            map.merge(to, value, merge);
+        }
+    }
+
+    private static long lastOrZero(TreeMap<Long, Long> budgets) {
+        return budgets == null || budgets.isEmpty() ? 0L : budgets.lastEntry().getValue();
+    }
+}
@@ -0,0 +1,213 @@
+package org.model;
+
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Итоги кошелька по дням и месяцам.
+ *
+ *        Для каждого дня и месяца хранятся итоги по категориям и типам
+ *        транзакций ({@link PeriodTotals}); они поддерживаются при каждом
+ *        изменении кошелька. Отчет за период читает только корзины этого
+ *        периода. Транзакции без времени в отчеты не попадают.
+ */
+final class WalletRollups {
+
+    private final TreeMap<LocalDate, Map<String, PeriodTotals>> days = new TreeMap<>();
+    private final TreeMap<LocalDate, Map<String, PeriodTotals>> months = new TreeMap<>();
+
+    /**
+     * Итоги по всем транзакциям (один проход)
+     */
+    static WalletRollups of(Iterable<Transaction> transactions) {
+        return of(transactions, false);
+    }
+
+    /**
+     * Итоги по всем транзакциям
+     *
+     * @param parallel true - столбцовое хранилище считается параллельно
+     *                 (результат совпадает с последовательным подсчетом)
+     */
+    static WalletRollups of(Iterable<Transaction> transactions, boolean parallel) {
+        if (transactions instanceof ColumnarTransactionStore columns) {
+            return columns.rollup(parallel);
+        }
+        WalletRollups rollups = new WalletRollups();
+        if (transactions instanceof TransactionStore store) {
+            store.visit((id, category, type, amount, epochMicros) -> {
+                if (epochMicros != TransactionVisitor.NO_TIME) {
+                    rollups.add(TransactionVisitor.toDateTime(epochMicros).toLocalDate(), category, type, amount);
+                }
+            });
+            return rollups;
+        }
+        for (Transaction transaction : transactions) {
+            rollups.add(transaction);
+        }
+        return rollups;
+    }
+
+    void add(Transaction transaction) {
+        if (transaction.getTimestamp() != null) {
+            add(transaction.getTimestamp().toLocalDate(), transaction.getCategory(),
+                    transaction.getTransactionType(), transaction.getAmount());
+        }
+    }
+
+    void add(LocalDate day, String category, TransactionType type, long amount) {
+        if (category == null || type == null) {
+            return;
+        }
+        totals(days, day, category).add(type, amount);
+        totals(months, day.withDayOfMonth(1), category).add(type, amount);
+    }
+
+    void remove(Transaction transaction) {
+        if (transaction.getTimestamp() == null || transaction.getCategory() == null
+                || transaction.getTransactionType() == null) {
+            return;
+        }
+        LocalDate day = transaction.getTimestamp().toLocalDate();
+        remove(days, day, transaction);
+        remove(months, day.withDayOfMonth(1), transaction);
+    }
+
+    /**
+     * Добавляет итоги следующего по порядку отрезка транзакций: категории,
+     * которых еще нет в периоде, встают после имеющихся, как при
+     * последовательном подсчете
+     */
+    void merge(WalletRollups next) {
+        merge(days, next.days);
+        merge(months, next.months);
+    }
+
+    private static void merge(TreeMap<LocalDate, Map<String, PeriodTotals>> target,
+            TreeMap<LocalDate, Map<String, PeriodTotals>> next) {
+        next.forEach((period, bucket) -> {
+            Map<String, PeriodTotals> merged = target.computeIfAbsent(period, p -> new LinkedHashMap<>());
+            bucket.forEach((category, totals) -> merged.computeIfAbsent(category, c -> new PeriodTotals())
+                    .addAll(totals));
+        });
+    }
+
+    /**
+     * Убирает итоги категории заданного типа из всех периодов
+     */
+    void removeCategory(String category, TransactionType type) {
+        for (TreeMap<LocalDate, Map<String, PeriodTotals>> buckets : levels()) {
+            Iterator<Map<String, PeriodTotals>> iterator = buckets.values().iterator();
+            while (iterator.hasNext()) {
+                Map<String, PeriodTotals> bucket = iterator.next();
+                PeriodTotals totals = bucket.get(category);
+                if (totals == null) {
+                    continue;
+                }
+                totals.moveTo(new PeriodTotals(), type);
+                if (totals.isEmpty()) {
+                    bucket.remove(category);
+                }
+                if (bucket.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Переносит итоги категории в новую категорию во всех периодах
+     *
+     * @param type income/outcome или null для всех типов
+     */
+    void rename(String oldCategory, String type, String newCategory) {
+        if (oldCategory.equals(newCategory)) {
+            return;
+        }
+        for (TreeMap<LocalDate, Map<String, PeriodTotals>> buckets : levels()) {
+            for (Map<String, PeriodTotals> bucket : buckets.values()) {
+                PeriodTotals totals = bucket.get(oldCategory);
+                if (totals == null) {
+                    continue;
+                }
+                PeriodTotals target = bucket.computeIfAbsent(newCategory, c -> new PeriodTotals());
+                for (TransactionType transactionType : TransactionType.values()) {
+                    if (type == null || type.equalsIgnoreCase(transactionType.getName())) {
+                        totals.moveTo(target, transactionType);
+                    }
+                }
+                if (totals.isEmpty()) {
+                    bucket.remove(oldCategory);
+                }
+                if (target.isEmpty()) { // переносить было нечего
+                    bucket.remove(newCategory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Итоги за период включительно. Возвращаются копии.
+     *
+     * @param monthly  true - по месяцам, false - по дням
+     * @param from     первый день (null - с начала)
+     * @param to       последний день (null - до конца)
+     * @param category категория (null - все категории)
+     * @return период (день или первый день месяца) -> категория -> итоги
+     */
+    SortedMap<LocalDate, Map<String, PeriodTotals>> report(boolean monthly, LocalDate from, LocalDate to,
+            String category) {
+        NavigableMap<LocalDate, Map<String, PeriodTotals>> buckets = monthly ? months : days;
+        if (from != null) {
+            buckets = buckets.tailMap(monthly ? from.withDayOfMonth(1) : from, true);
+        }
+        if (to != null) {
+            buckets = buckets.headMap(to, true);
+        }
+        SortedMap<LocalDate, Map<String, PeriodTotals>> result = new TreeMap<>();
+        buckets.forEach((period, bucket) -> {
+            Map<String, PeriodTotals> copy = new LinkedHashMap<>();
+            bucket.forEach((name, totals) -> {
+                if (category == null || category.equals(name)) {
+                    copy.put(name, totals.copy());
+                }
+            });
+            if (!copy.isEmpty()) {
+                result.put(period, copy);
+            }
+        });
+        return result;
+    }
+
+    private List<TreeMap<LocalDate, Map<String, PeriodTotals>>> levels() {
+        return List.of(days, months);
+    }
+
+    private static PeriodTotals totals(TreeMap<LocalDate, Map<String, PeriodTotals>> buckets, LocalDate period,
+            String category) {
+        return buckets.computeIfAbsent(period, p -> new LinkedHashMap<>())
+                .computeIfAbsent(category, c -> new PeriodTotals());
+    }
+
+    private static void remove(TreeMap<LocalDate, Map<String, PeriodTotals>> buckets, LocalDate period,
+            Transaction transaction) {
+        Map<String, PeriodTotals> bucket = buckets.get(period);
+        PeriodTotals totals = bucket == null ? null : bucket.get(transaction.getCategory());
+        if (totals == null) {
+            return;
+        }
+        totals.remove(transaction.getTransactionType(), transaction.getAmount());
+        if (totals.isEmpty()) {
+            bucket.remove(transaction.getCategory());
+        }
+        if (bucket.isEmpty()) {
+            buckets.remove(period);
+        }
+    }
+}
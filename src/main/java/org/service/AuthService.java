@@ -10,7 +10,6 @@ import org.exception.WalletExceptions.UserAlreadyExistsException;
 import org.exception.WalletExceptions.UserNotFoundException;
 import org.exception.WalletExceptions.WrongPasswordException;
 import org.model.User;
-import org.storage.Config;
 
 /**
  * Сервис аутентификации и управления пользователями.
@@ -24,7 +23,7 @@ public class AuthService {
     }
 
     public AuthService() {
-        this(new UserService(Config.get("user.file")));
+        this(UserService.shared());
     }
 
     /**
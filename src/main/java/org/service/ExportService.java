@@ -21,10 +21,16 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
  */
 public class ExportService {
     private final ObjectMapper objectMapper;
+    private final UserService userService;
     Path exportPath = Paths.get(Config.get("export.path"));
     Path importPath = Paths.get(Config.get("import.path"));
 
     public ExportService() {
+        this(UserService.shared());
+    }
+
+    public ExportService(UserService userService) {
+        this.userService = userService;
         this.objectMapper = new ObjectMapper();
         objectMapper.registerModule(new JavaTimeModule());
         objectMapper.enable(com.fasterxml.jackson.databind.SerializationFeature.INDENT_OUTPUT);
@@ -79,12 +85,14 @@ public class ExportService {
             Map<String, Object> walletData = (Map<String, Object>) importData.get("wallet");
             Wallet importedWallet = objectMapper.convertValue(walletData, Wallet.class);
             
+            // версии продолжают прежний кошелек, чтобы журнал не спутал старые записи с новыми
+            importedWallet.setVersion(Math.max(importedWallet.getVersion(), user.getWallet().getVersion()) + 1);
             user.setWallet(importedWallet);
 
-            user.getWallet().calculateTranscactionsIDs();
-            UserService userService = new UserService(Config.get("user.file"));
+            if (user.getWallet().assignMissingIds() > 0) {
+                System.out.println("ID данных изменены");
+            }
             userService.updateUser(user);
-            System.out.println("ID данных изменены");
             System.out.println("Данные импортированы из файла: " + filePath);
 
         } catch (Exception e) {
@@ -1,28 +1,111 @@
 package org.service;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import org.model.ColumnarTransactionStore;
 import org.model.User;
+import org.model.Wallet;
 import org.storage.Config;
-
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.storage.JournalRecord;
+import org.storage.UserStorage;
 
 /**
  * Сервис для работы с пользователями
- * Хранит данные в JSON файле
+ * Хранит данные через {@link UserStorage}, а в памяти держит резидентный репозиторий:
+ * пользователь читается из хранилища один раз при первом обращении (точечным
+ * поиском, без разбора остальных), дальше поиск обслуживается из памяти,
+ * а в хранилище записываются только реальные изменения: пользователь без
+ * несохраненных изменений ({@link User#isDirty()}) не записывается, а в
+ * полный снимок неизмененные пользователи переносятся без сериализации.
+ * Изменения кошельков дописываются в журнал хранилища и
+ * применяются поверх последнего снимка при запуске.
+ * При ненулевом окне storage.commit.window.ms снимки пишутся групповым
+ * коммитом: изменения за окно объединяются в одну запись на диск.
+ * Кошельки в памяти ограничены оценкой размера wallet.cache.max.bytes:
+ * при превышении самые давние по обращению кошельки (после записи
+ * ожидающих изменений) выгружаются и читаются заново при обращении.
+ * Снимки пишутся из копий пользователей вне блокировки сервиса, поэтому
+ * компактификация (новый снимок и свертка журнала) не останавливает
+ * запись изменений; порядок записей копий соблюдается по номерам.
  */
 public final class UserService {
 
-    private final String FILE_PATH;
-    private final ObjectMapper objectMapper = new ObjectMapper()
-            .enable(SerializationFeature.INDENT_OUTPUT);
+    /** Общий экземпляр для сервисов, созданных без явного UserService */
+    private static UserService shared;
+
+    /** Оценка размера транзакции по умолчанию: столбцы хранилища и индексы */
+    private static final long DEFAULT_TRANSACTION_BYTES = 48;
+
+    /** Оценка размера кошелька без транзакций, байт */
+    private static final long WALLET_OVERHEAD_BYTES = 1024;
+
+    private final UserStorage storage;
+
+    /** Резидентный репозиторий: нормализованное имя -> пользователь */
+    private final Map<String, User> users = new LinkedHashMap<>();
+
+    /** true если в репозиторий загружены все пользователи хранилища */
+    private boolean fullyLoaded;
+
+    /** Число поисков, обслуженных из памяти */
+    private long cacheHits;
+
+    /** Число поисков, не найденных в памяти */
+    private long cacheMisses;
+
+    /** Кошельки в памяти в порядке обращения: имя -> оценка размера, байт */
+    private final LinkedHashMap<String, Long> residentWallets = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Оценка размера кошельков в памяти, байт */
+    private long residentWalletBytes;
+
+    /** Предел оценки размера кошельков в памяти, байт (0 - без предела) */
+    private long walletCacheLimit;
+
+    /** Оценка размера одной транзакции в памяти, байт */
+    private long transactionBytes;
+
+    /** Обращений к кошельку, уже учтенному в памяти */
+    private long walletCacheHits;
+
+    /** Обращений к кошельку, еще не учтенному в памяти */
+    private long walletCacheMisses;
+
+    /** Выгруженных кошельков */
+    private long walletEvictions;
 
-    private final File file;
+    /** Окно группового коммита, мс (0 - запись сразу) */
+    private final long commitWindowMs;
+
+    /** Нужна запись полного снимка (неразбитое хранилище) */
+    private boolean pendingSnapshot;
+
+    /** Пользователи, ожидающие записи (разбитое хранилище) */
+    private final Map<String, User> pendingUsers = new LinkedHashMap<>();
+
+    private ScheduledExecutorService flusher;
+    private ScheduledFuture<?> scheduledFlush;
+
+    /** Номер последней снятой копии для записи (растет под блокировкой сервиса) */
+    private long writeSeq;
+
+    /** Блокировка записи снимков в хранилище (отдельно от блокировки сервиса) */
+    private final Object writeLock = new Object();
+
+    /** Номер копии последнего записанного полного снимка */
+    private long writtenSnapshotSeq;
+
+    /** Номера копий последних записанных пользователей (разбитое хранилище) */
+    private final Map<String, Long> writtenUserSeqs = new HashMap<>();
 
     /**
      * Конструктор
@@ -30,70 +113,87 @@ public final class UserService {
      * @param file - путь к файлу, если null - берется из конфига
      */
     public UserService(String file) {
-        objectMapper.registerModule(new JavaTimeModule());
-        FILE_PATH = file == null ? Config.get("user.file") : file;
-        createFile(FILE_PATH);
-        this.file = new File(FILE_PATH);
-        objectMapper.findAndRegisterModules();
+        this(UserStorage.fromConfig(file == null ? Config.get("user.file") : file));
     }
 
     /**
-     * Загружает всех пользователей из файла
-     * Если файла нет - создает новый
+     * Конструктор с заданным хранилищем
      * 
-     * @return список пользователей
+     * @param storage - хранилище пользователей
      */
-    public ArrayList<User> loadUsers() {
-        if (file.length() == 0) {
-            try {
-                file.getParentFile().mkdirs();
-                file.createNewFile();
-                objectMapper.writeValue(file, new ArrayList<User>());
-            } catch (IOException e) {
-                System.err.println("Ошибка при создании файла: " + e.getMessage());
-            }
-            return new ArrayList<>();
+    public UserService(UserStorage storage) {
+        this(storage, Config.getLong("storage.commit.window.ms", 0));
+    }
+
+    /**
+     * Конструктор с заданным хранилищем и окном группового коммита
+     * 
+     * @param storage        - хранилище пользователей
+     * @param commitWindowMs - окно группового коммита, мс (0 - запись сразу)
+     */
+    public UserService(UserStorage storage, long commitWindowMs) {
+        this.storage = storage;
+        this.commitWindowMs = commitWindowMs;
+        this.walletCacheLimit = Config.getLong("wallet.cache.max.bytes", 0);
+        this.transactionBytes = Config.getLong("wallet.cache.transaction.bytes", DEFAULT_TRANSACTION_BYTES);
+        long compactionInterval = Config.getLong("storage.compaction.interval.ms", 0);
+        if (compactionInterval > 0) {
+            executor().scheduleWithFixedDelay(this::compactQuietly, compactionInterval, compactionInterval,
+                    TimeUnit.MILLISECONDS);
         }
+    }
 
-        try {
-            ArrayList<User> users = objectMapper.readValue(file, new TypeReference<ArrayList<User>>() {
-            });
-            // Пересчитываем ID транзакций после загрузки
-            for (User user : users) {
-                user.getWallet().calculateTranscactionsIDs();
-            }
-            saveUsers(users);
-            return users;
-        } catch (IOException e) {
-            System.err.println("Ошибка чтения файла пользователей: " + e.getMessage());
-            return new ArrayList<>();
+    /**
+     * Общий экземпляр с хранилищем из конфига: все сервисы работают
+     * с одним резидентным репозиторием и одним хранилищем.
+     * 
+     * @return общий сервис пользователей
+     */
+    public static synchronized UserService shared() {
+        if (shared == null) {
+            shared = new UserService(Config.get("user.file"));
         }
+        return shared;
+    }
+
+    /**
+     * Загружает всех пользователей из хранилища (хранилище только читается)
+     * 
+     * @return список пользователей
+     */
+    public ArrayList<User> loadUsers() {
+        return new ArrayList<>(storage.loadAll());
     }
 
     /**
-     * Сохраняет всех пользователей в файл
+     * Сохраняет всех пользователей в хранилище
      * 
      * @param users - список пользователей для сохранения
+     * @return true если запись успешна
      */
-    public void saveUsers(ArrayList<User> users) {
-        try {
-            objectMapper.writeValue(file, users);
-        } catch (IOException e) {
-            System.err.println("Ошибка записи пользователей в файл: " + e.getMessage());
-        }
+    public synchronized boolean saveUsers(ArrayList<User> users) {
+        return writeSnapshot(users, users, ++writeSeq, false);
     }
 
     /**
-     * Ищет пользователя по имени
+     * Ищет пользователя по имени в резидентном репозитории
      * 
      * @param username - имя пользователя
      * @return найденный пользователь или null
      */
-    public User findUserByName(String username) {
-        return loadUsers().stream()
-                .filter(u -> u.getUsername().equalsIgnoreCase(username))
-                .findFirst()
-                .orElse(null);
+    public synchronized User findUserByName(String username) {
+        if (username == null) {
+            cacheMisses++;
+            return null;
+        }
+        User user = users.get(UserStorage.normalize(username));
+        if (user != null) {
+            cacheHits++;
+            touchWallet(user);
+            return user;
+        }
+        cacheMisses++;
+        return fetch(username);
     }
 
     /**
@@ -102,15 +202,14 @@ public final class UserService {
      * @param user - пользователь для добавления
      * @throws RuntimeException если пользователь уже существует
      */
-    public void addUser(User user) {
-        ArrayList<User> users = loadUsers();
-        boolean exists = users.stream()
-                .anyMatch(u -> u.getUsername().equalsIgnoreCase(user.getUsername()));
-        if (exists) {
+    public synchronized void addUser(User user) {
+        String key = UserStorage.normalize(user.getUsername());
+        if (exists(user.getUsername())) {
             throw new RuntimeException("Пользователь " + user.getUsername() + " уже существует!");
         }
-        users.add(user);
-        saveUsers(users);
+        users.put(key, user);
+        persist(user);
+        touchWallet(user);
     }
 
     /**
@@ -119,55 +218,509 @@ public final class UserService {
      * @param updatedUser - обновленные данные пользователя
      * @return true если обновление успешно, false если пользователь не найден
      */
-    public boolean updateUser(User updatedUser) {
-        ArrayList<User> users = loadUsers();
-        for (int i = 0; i < users.size(); i++) {
-            User u = users.get(i);
-            if (u.getUsername().equalsIgnoreCase(updatedUser.getUsername())) {
-                users.set(i, updatedUser);
-                saveUsers(users);
-                return true;
+    public synchronized boolean updateUser(User updatedUser) {
+        if (!exists(updatedUser.getUsername())) {
+            return false; // пользователь не найден
+        }
+        users.put(UserStorage.normalize(updatedUser.getUsername()), updatedUser);
+        persist(updatedUser);
+        touchWallet(updatedUser);
+        return true;
+    }
+
+    public synchronized boolean deleteUser(User user) {
+        if (!exists(user.getUsername())) {
+            return false;
+        }
+        String key = UserStorage.normalize(user.getUsername());
+        forgetWallet(key);
+        if (storage.isPartitioned()) {
+            users.remove(key);
+            pendingUsers.remove(key);
+            long seq = ++writeSeq;
+            synchronized (writeLock) { // более старая копия не должна вернуть пользователя
+                storage.delete(user.getUsername());
+                writtenUserSeqs.put(key, seq);
             }
+        } else {
+            loadRemaining();
+            users.remove(key);
+            persist(null);
         }
-        return false; // пользователь не найден
+        return true;
     }
 
-    public boolean deleteUser(User user) {
-        ArrayList<User> users = loadUsers();
-        boolean removed = users.removeIf(u -> u.getUsername().equalsIgnoreCase(user.getUsername()));
-        if (removed)
-            saveUsers(users);
-        return removed;
+    /**
+     * Фиксирует изменение кошелька одной записью в журнале
+     * вместо перезаписи всего файла
+     * 
+     * @param user   - владелец кошелька (уже измененного)
+     * @param record - запись об изменении
+     * @return true если запись сохранена, false если пользователь не найден
+     */
+    public synchronized boolean logWalletChange(User user, JournalRecord record) {
+        if (!exists(user.getUsername())) {
+            return false; // пользователь не найден
+        }
+        users.put(UserStorage.normalize(user.getUsername()), user);
+        record.setVersion(user.getWallet().getVersion());
+        try {
+            storage.append(user, record);
+            user.markFlushed(-1, record.getVersion()); // изменение уже в журнале
+        } catch (IOException e) {
+            // журнал недоступен - сохраняем полный снимок
+            System.err.println("Ошибка записи журнала: " + e.getMessage());
+            persist(user);
+        }
+        touchWallet(user);
+        return true;
+    }
+
+    /**
+     * @return Число поисков, обслуженных из памяти
+     */
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    /**
+     * @return Число поисков, не нашедших пользователя
+     */
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * @return Число обращений к кошельку, уже учтенному в памяти
+     */
+    public synchronized long getWalletCacheHits() {
+        return walletCacheHits;
+    }
+
+    /**
+     * @return Число обращений к кошельку, еще не учтенному в памяти
+     */
+    public synchronized long getWalletCacheMisses() {
+        return walletCacheMisses;
+    }
+
+    /**
+     * @return Число выгруженных из памяти кошельков
+     */
+    public synchronized long getWalletEvictions() {
+        return walletEvictions;
+    }
+
+    /**
+     * @return Оценка размера кошельков в памяти, байт
+     */
+    public synchronized long getResidentWalletBytes() {
+        return residentWalletBytes;
     }
 
     /**
-     * Создает файл если его нет
+     * Задает предел оценки размера кошельков в памяти
+     *
+     * @param maxBytes предел, байт (0 - без предела)
+     */
+    public synchronized void setWalletCacheLimit(long maxBytes) {
+        walletCacheLimit = maxBytes;
+        evictWallets(null);
+    }
+
+    /**
+     * Записывает все изменения, ожидающие группового коммита.
+     * Неудачные записи остаются в очереди и повторяются позже.
+     */
+    public synchronized void flush() {
+        scheduledFlush = null;
+        if (pendingSnapshot && write(null)) {
+            pendingSnapshot = false;
+        }
+        pendingUsers.values().removeIf(user -> !user.isDirty() || write(user));
+        if (pendingSnapshot || !pendingUsers.isEmpty()) {
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Компактификация: записывает свежий снимок пользователей, освобождает
+     * место удаленных транзакций и сворачивает журнал до изменений,
+     * сделанных во время записи. Копии снимаются под блокировкой сервиса
+     * по одной (или все сразу для единого файла), запись на диск идет без нее.
      * 
-     * @param filename - путь к файлу
+     * @return true если снимок записан
      */
-    public void createFile(String filename) {
-        File file = new File(filename);
-        if (!file.exists() || file.length() == 0) {
-            try {
-                File parentDir = file.getParentFile();
-                if (parentDir != null && !parentDir.exists()) {
-                    boolean dirsCreated = parentDir.mkdirs();
-                    if (!dirsCreated) {
-                        System.err.println("Не удалось создать директорию: " + parentDir.getAbsolutePath());
-                    }
+    public boolean compact() {
+        if (!storage.isPartitioned()) {
+            List<User> originals;
+            List<User> snapshot;
+            long seq;
+            synchronized (this) {
+                loadRemaining();
+                originals = new ArrayList<>(users.values());
+                snapshot = takeSnapshot();
+                seq = ++writeSeq;
+            }
+            return writeSnapshot(originals, snapshot, seq, false);
+        }
+        List<String> keys;
+        synchronized (this) {
+            loadRemaining();
+            keys = new ArrayList<>(users.keySet());
+        }
+        boolean success = true;
+        for (String key : keys) {
+            User user;
+            synchronized (this) {
+                user = users.get(key);
+            }
+            if (user == null) {
+                continue; // удален во время компактификации
+            }
+            storage.reclaim(user);
+            User copy;
+            long seq;
+            synchronized (this) {
+                if (users.get(key) != user) {
+                    continue;
+                }
+                copy = storage.snapshotOf(user);
+                seq = ++writeSeq;
+            }
+            success &= writeUser(user, copy, seq);
+            synchronized (this) {
+                if (users.get(key) == user) {
+                    touchWallet(user); // кошелек мог быть прочитан при освобождении места
                 }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Компактификация по расписанию: ошибка не останавливает следующие запуски
+     */
+    private void compactQuietly() {
+        try {
+            if (!compact()) {
+                System.err.println("Компактификация хранилища завершилась с ошибками");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка компактификации хранилища: " + e.getMessage());
+        }
+    }
 
-                // Создаем файл
-                if (!file.exists()){
-                    boolean fileCreated = file.createNewFile();
-                    if (!fileCreated) {
-                        System.err.println("Не удалось создать файл: " + filename);
-                    }
+    /**
+     * Записывает изменившегося пользователя в хранилище сразу
+     * или ставит в очередь группового коммита.
+     * 
+     * @param changed - измененный пользователь (null - только полный снимок)
+     */
+    private void persist(User changed) {
+        if (changed != null && !changed.isDirty()) {
+            return; // изменений нет (или они уже в журнале)
+        }
+        if (commitWindowMs <= 0) {
+            write(changed);
+            return;
+        }
+        if (storage.isPartitioned() && changed != null) {
+            pendingUsers.put(UserStorage.normalize(changed.getUsername()), changed);
+        } else {
+            pendingSnapshot = true;
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Записывает пользователя в хранилище.
+     * Если хранилище не разбито по пользователям - записывается полный снимок,
+     * в который неизмененные пользователи переносятся из прежнего.
+     * Снимок уже содержит изменения записанных пользователей из журнала,
+     * поэтому эти записи журнала удаляются.
+     * 
+     * @return true если запись успешна
+     */
+    private boolean write(User changed) {
+        if (storage.isPartitioned() && changed != null) {
+            return writeUser(changed, storage.snapshotOf(changed), ++writeSeq);
+        }
+        List<User> snapshot = takeSnapshot();
+        return writeSnapshot(new ArrayList<>(users.values()), snapshot, ++writeSeq, true);
+    }
+
+    /**
+     * Копии всех пользователей для полного снимка (под блокировкой сервиса).
+     * Кошельки пользователей без несохраненных изменений не копируются:
+     * они читаются, только если хранилище сериализует пользователя заново
+     * (см. {@link User#copy()}).
+     */
+    private List<User> takeSnapshot() {
+        loadRemaining();
+        List<User> snapshot = new ArrayList<>(users.size());
+        for (User user : users.values()) {
+            snapshot.add(storage.snapshotOf(user));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Записывает полный снимок, если не записан более новый, и отмечает
+     * пользователей записанными
+     * 
+     * @param originals пользователи репозитория в порядке копий
+     * @param snapshot  копии пользователей
+     * @param seq       номер копии
+     * @param changed   true - записать только измененных, false - всех
+     */
+    private boolean writeSnapshot(List<User> originals, List<User> snapshot, long seq, boolean changed) {
+        synchronized (writeLock) {
+            if (seq < writtenSnapshotSeq) {
+                return true; // уже записан более новый снимок
+            }
+            if (!(changed ? storage.saveChanged(snapshot) : storage.saveAll(snapshot))) {
+                return false;
+            }
+            writtenSnapshotSeq = seq;
+            for (int i = 0; i < originals.size(); i++) {
+                markFlushed(originals.get(i), snapshot.get(i));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Записывает копию пользователя, если не записана более новая
+     * 
+     * @param user пользователь репозитория
+     * @param copy копия для записи
+     * @param seq  номер копии
+     */
+    private boolean writeUser(User user, User copy, long seq) {
+        String key = UserStorage.normalize(copy.getUsername());
+        synchronized (writeLock) {
+            if (seq < writtenUserSeqs.getOrDefault(key, 0L)) {
+                return true; // уже записана более новая копия
+            }
+            if (!storage.save(copy)) {
+                return false;
+            }
+            writtenUserSeqs.put(key, seq);
+            markFlushed(user, copy);
+            return true;
+        }
+    }
+
+    /**
+     * Отмечает пользователя записанным до версий записанной копии
+     */
+    private static void markFlushed(User user, User copy) {
+        user.markFlushed(copy.getVersion(), copy.getWalletVersion());
+    }
+
+    /**
+     * Планирует запись очереди по истечении окна группового коммита.
+     * При завершении программы очередь записывается хуком остановки.
+     */
+    private void scheduleFlush() {
+        if (scheduledFlush != null) {
+            return;
+        }
+        scheduledFlush = executor().schedule(this::flush, commitWindowMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Фоновый поток группового коммита и компактификации (создается при первой задаче)
+     */
+    private synchronized ScheduledExecutorService executor() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "user-storage-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+        }
+        return flusher;
+    }
+
+    /**
+     * Учитывает обращение к кошельку пользователя (если кошелек уже в
+     * памяти) и выгружает давние кошельки сверх предела
+     */
+    private void touchWallet(User user) {
+        if (trackWallet(user)) {
+            evictWallets(UserStorage.normalize(user.getUsername()));
+        }
+    }
+
+    /**
+     * Учитывает кошелек пользователя в памяти без выгрузки других
+     *
+     * @return true если кошелек учтен
+     */
+    private boolean trackWallet(User user) {
+        if (walletCacheLimit <= 0 || !user.isWalletLoaded()) {
+            return false;
+        }
+        recordWallet(UserStorage.normalize(user.getUsername()), user.getWallet());
+        return true;
+    }
+
+    private void recordWallet(String key, Wallet wallet) {
+        long bytes = estimateBytes(wallet);
+        Long previous = residentWallets.put(key, bytes);
+        if (previous == null) {
+            walletCacheMisses++;
+        } else {
+            walletCacheHits++;
+            residentWalletBytes -= previous;
+        }
+        residentWalletBytes += bytes;
+    }
+
+    private void forgetWallet(String key) {
+        Long bytes = residentWallets.remove(key);
+        if (bytes != null) {
+            residentWalletBytes -= bytes;
+        }
+    }
+
+    /**
+     * Выгружает самые давние по обращению кошельки, пока оценка размера
+     * больше предела. Ожидающие записи изменения сначала записываются;
+     * кошелек, который не удалось записать, остается в памяти.
+     *
+     * @param keep пользователь, чей кошелек не выгружается (последнее обращение)
+     */
+    private void evictWallets(String keep) {
+        evictWallets(keep, true);
+    }
+
+    /**
+     * @param keep  пользователь, чей кошелек не выгружается
+     * @param write false - выгружать только кошельки без несохраненных
+     *              изменений, ничего не записывая (во время подготовки снимка)
+     */
+    private void evictWallets(String keep, boolean write) {
+        while (walletCacheLimit > 0 && residentWalletBytes > walletCacheLimit) {
+            String victim = null;
+            for (String key : residentWallets.keySet()) {
+                User candidate = users.get(key);
+                if (!key.equals(keep) && (write || candidate == null || !candidate.isDirty())) {
+                    victim = key;
+                    break;
                 }
-                
-            } catch (Exception e) {
-                System.err.println(e.getMessage());
             }
+            if (victim == null) {
+                return;
+            }
+            User user = users.get(victim);
+            if (user != null && !writeBack(victim, user)) {
+                return; // повторим при следующем обращении
+            }
+            forgetWallet(victim);
+            if (user != null) {
+                String username = user.getUsername();
+                user.setWalletLoader(() -> reloadWallet(username));
+            }
+            walletEvictions++;
+        }
+    }
+
+    /**
+     * Записывает несохраненные изменения пользователя (в том числе
+     * ожидающие группового коммита)
+     *
+     * @return true если несохраненных изменений не осталось
+     */
+    private boolean writeBack(String key, User user) {
+        if (!user.isDirty()) {
+            return true;
+        }
+        if (storage.isPartitioned()) {
+            if (!write(user)) {
+                return false;
+            }
+            pendingUsers.remove(key);
+        } else {
+            if (!write(null)) {
+                return false;
+            }
+            pendingSnapshot = false;
+        }
+        return true;
+    }
+
+    /**
+     * Читает выгруженный кошелек заново из хранилища. Промах кеша
+     * учитывается при следующем обращении к пользователю: загрузчик
+     * вызывается и для копий снимка, которые в памяти не остаются.
+     */
+    private Wallet reloadWallet(String username) {
+        User stored = storage.load(username);
+        if (stored == null) {
+            throw new IllegalStateException("Пользователь " + username + " не найден в хранилище");
+        }
+        return stored.getWallet();
+    }
+
+    /**
+     * Оценка размера кошелька в памяти: транзакции в куче (столбцы) или
+     * только служебные данные (транзакции вне кучи, например в файле)
+     */
+    private long estimateBytes(Wallet wallet) {
+        if (wallet.getTransactionStore() instanceof ColumnarTransactionStore store) {
+            return WALLET_OVERHEAD_BYTES + (long) store.size() * transactionBytes;
+        }
+        return WALLET_OVERHEAD_BYTES;
+    }
+
+    /**
+     * Загружает пользователя из хранилища в репозиторий
+     * 
+     * @return пользователь или null, если его нет в хранилище
+     */
+    private User fetch(String username) {
+        if (fullyLoaded) {
+            return null;
+        }
+        User user = storage.load(username);
+        if (user != null) {
+            users.put(UserStorage.normalize(user.getUsername()), user);
+            markFlushed(user, user); // прочитан из хранилища
+        }
+        return user;
+    }
+
+    /**
+     * Проверяет наличие пользователя в памяти или в хранилище
+     */
+    private boolean exists(String username) {
+        return users.containsKey(UserStorage.normalize(username)) || fetch(username) != null;
+    }
+
+    /**
+     * Догружает всех пользователей перед записью полного снимка; кошельки
+     * догруженных читаются при первом обращении. Уже загруженные
+     * (и, возможно, измененные) пользователи не заменяются.
+     */
+    private void loadRemaining() {
+        if (fullyLoaded) {
+            return;
+        }
+        List<User> loaded = new ArrayList<>();
+        for (User user : storage.loadAllHeaders()) {
+            if (users.putIfAbsent(UserStorage.normalize(user.getUsername()), user) == null) {
+                markFlushed(user, user);
+                loaded.add(user);
+            }
+        }
+        fullyLoaded = true;
+        for (User user : loaded) {
+            trackWallet(user);
         }
+        evictWallets(null, false);
     }
-}
\ No newline at end of file
+}
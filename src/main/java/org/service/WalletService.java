@@ -1,17 +1,26 @@
 package org.service;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.exception.WalletExceptions.CategoryNotFoundException;
 import org.exception.WalletExceptions.IncomeCategoryAlreadyExistsException;
 import org.exception.WalletExceptions.OutcomeCategoryAlreadyExistsException;
 import org.exception.WalletExceptions.TransactionNotFoundException;
+import org.model.BudgetListener;
+import org.model.BudgetStatus;
+import org.model.PeriodTotals;
 import org.model.Transaction;
 import org.model.TransactionType;
 import org.model.User;
 import org.model.Wallet;
-import org.storage.Config;
+import org.storage.JournalRecord;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
@@ -20,49 +29,97 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
  */
 @JsonIgnoreProperties(ignoreUnknown = true) // игнорирование сериализаций
 public class WalletService {
-    private final UserService userService = new UserService(Config.get("user.file"));
+    private final UserService userService;
+
+    public WalletService(UserService userService) {
+        this.userService = userService;
+    }
+
+    public WalletService() {
+        this(UserService.shared());
+    }
 
     /**
      * Добавляет доход пользователю
      */
     public void addIncome(User user, String category, long amount) {
-        Transaction transaction = new Transaction(category, amount, TransactionType.INCOME);
-        try {
-            user.getWallet().addTransaction(transaction);
-        } catch (IllegalArgumentException e) {
-            System.out.println(e.getMessage());
-            return;
-        }
-        userService.updateUser(user);
+        add(user, new Transaction(category, amount, TransactionType.INCOME));
     }
 
     /**
      * Добавляет планируемый расход
      */
     public void addPlannedOutcome(User user, String category, long amount) {
-        Transaction transaction = new Transaction(category, amount, TransactionType.OUTCOME_PLANNED);
-        try {
-            user.getWallet().addTransaction(transaction);
-        } catch (IllegalArgumentException e) {
-            System.out.println(e.getMessage());
-            return;
-        }
-        userService.updateUser(user);
-
+        add(user, new Transaction(category, amount, TransactionType.OUTCOME_PLANNED));
     }
 
     /**
      * Добавляет фактический расход
      */
     public void addSpentOutcome(User user, String category, long amount) {
-        Transaction transaction = new Transaction(category, amount, TransactionType.OUTCOME_SPENT);
+        add(user, new Transaction(category, amount, TransactionType.OUTCOME_SPENT));
+    }
+
+    /**
+     * Добавляет транзакцию и сообщает о пересечении порогов бюджета
+     * категории: предупреждение выводится один раз, когда расходы впервые
+     * достигают 80% бюджета или превышают его.
+     */
+    private void add(User user, Transaction transaction) {
+        Wallet wallet = user.getWallet();
+        BudgetListener listener = this::showBudgetChange;
+        wallet.addBudgetListener(listener);
         try {
-            user.getWallet().addTransaction(transaction);
+            wallet.addTransaction(transaction);
         } catch (IllegalArgumentException e) {
             System.out.println(e.getMessage());
             return;
+        } finally {
+            wallet.removeBudgetListener(listener);
+        }
+        userService.logWalletChange(user, JournalRecord.add(transaction));
+    }
+
+    private void showBudgetChange(String category, BudgetStatus previous, BudgetStatus current) {
+        if (current == BudgetStatus.EXCEEDED) {
+            System.out.println("Внимание! Расходы превышают бюджет категории " + category + "!");
+        } else if (current == BudgetStatus.WARNING) {
+            System.out.println("Внимание! Расходы категории " + category + " достигли 80% бюджета!");
+        }
+    }
+
+    /**
+     * Добавляет пакет транзакций (например, выписку банка): пакет
+     * проверяется целиком, получает ID и попадает в итоги за один проход
+     * и сохраняется одной записью журнала. Транзакции без времени
+     * получают текущее время.
+     *
+     * @param batch транзакции (категория, сумма, тип, время)
+     * @return число добавленных транзакций
+     * @throws IllegalArgumentException если транзакция пакета некорректна
+     *                                  (тогда пакет не добавляется)
+     */
+    public int addTransactions(User user, List<Transaction> batch) {
+        LocalDateTime now = LocalDateTime.now();
+        for (Transaction transaction : batch) {
+            if (transaction.getTimestamp() == null) {
+                transaction.setTimestamp(now);
+            }
+        }
+        user.getWallet().addTransactions(batch);
+        if (!batch.isEmpty()) {
+            userService.logWalletChange(user, JournalRecord.addAll(batch));
         }
-        userService.updateUser(user);
+        return batch.size();
+    }
+
+    /**
+     * Добавляет поток транзакций одним пакетом
+     *
+     * @see #addTransactions(User, List)
+     */
+    public int addTransactions(User user, Stream<Transaction> batch) {
+        return addTransactions(user, batch.collect(Collectors.toList()));
     }
 
     public List<String> getIncomeCategories(User user) {
@@ -139,31 +196,44 @@ public class WalletService {
     }
 
     /**
-     * Удаляет все транзакции указанной категории и типа
+     * Выводит в консоль доходы и расходы по дням или месяцам
+     *
+     * @param monthly  true - по месяцам, false - по дням
+     * @param from     первый день периода (null - с начала)
+     * @param to       последний день периода (null - до конца)
+     * @param category категория (null - все категории)
      */
-    public void removeTransactionsByCategoryAndType(User user, String category, TransactionType type) {
-        Wallet wallet = user.getWallet();
-        List<Transaction> transactions = wallet.getTransactions();
+    public void printReport(User user, boolean monthly, LocalDate from, LocalDate to, String category) {
+        SortedMap<LocalDate, Map<String, PeriodTotals>> report = user.getWallet().getReport(monthly, from, to,
+                category);
 
-        // Фильтруем транзакции
-        List<Transaction> filteredTransactions = transactions.stream()
-                .filter(tx -> !(tx.getCategory().equals(category) && tx.getTransactionType() == type))
-                .collect(Collectors.toList());
+        if (report.isEmpty()) {
+            System.out.println("Нет операций за выбранный период.");
+            return;
+        }
 
-        wallet.setTransactions(filteredTransactions);
-        wallet.calculateTranscactionsIDs();
-        userService.updateUser(user);
+        DateTimeFormatter format = DateTimeFormatter.ofPattern(monthly ? "MM.yyyy" : "dd.MM.yyyy");
+        System.out.printf("%-10s | %-20s | %-15s | %-15s | %-8s%n", "Период", "Категория", "Доход", "Расход",
+                "Операций");
+        System.out.println("-----------+----------------------+-----------------+-----------------+---------");
+
+        report.forEach((period, categories) -> categories.forEach((name, totals) -> {
+            double income = totals.getAmount(TransactionType.INCOME) / 100.0;
+            double spent = totals.getAmount(TransactionType.OUTCOME_SPENT) / 100.0;
+            int count = totals.getCount(TransactionType.INCOME) + totals.getCount(TransactionType.OUTCOME_SPENT);
+            if (count > 0) {
+                System.out.printf("%-10s | %-20s | %15.2f | %15.2f | %8d%n",
+                        period.format(format), name, income, spent, count);
+            }
+        }));
     }
 
     /**
-     * Показывает предупреждения о бюджете для категории
+     * Удаляет все транзакции указанной категории и типа
      */
-    public void showBudgetWarning(User user, String category) {
-        if (user.getWallet().isBudgetExceeded(category)) {
-            System.out.println("Внимание! Расходы превышают бюджет категории!");
-        } else if (user.getWallet().isBudgetWarning(category)) {
-            System.out.println("Внимание! Расходы в категории больше или равны 80% бюджета!");
-        }
+    public void removeTransactionsByCategoryAndType(User user, String category, TransactionType type) {
+        user.getWallet().removeTransactionsByCategoryAndType(category, type);
+        userService.logWalletChange(user, JournalRecord.removeCategory(category, type));
     }
 
     /**
@@ -180,7 +250,7 @@ public class WalletService {
     }
 
     /**
-     * Удаляет транзакцию по ID с пересчетом идентификаторов
+     * Удаляет транзакцию по ID (ID остальных транзакций не меняются)
      */
     public void removeTransaction(User user, String id) throws TransactionNotFoundException {
         if (id == null || id.trim().isEmpty()) {
@@ -189,19 +259,12 @@ public class WalletService {
         }
 
         try {
-            int transactionId = Integer.parseInt(id.trim());
-            List<Transaction> transactions = user.getWallet().getTransactions();
-
-            boolean removed = transactions.removeIf(tx -> tx.getId() == transactionId);
+            long transactionId = Long.parseLong(id.trim());
 
-            if (!removed) {
+            if (!user.getWallet().removeTransaction(transactionId)) {
                 throw new TransactionNotFoundException(id);
             }
-
-            // Пересчитываем ID и сохраняем изменения
-            user.getWallet().setTransactions(transactions);
-            user.getWallet().calculateTranscactionsIDs();
-            userService.updateUser(user);
+            userService.logWalletChange(user, JournalRecord.remove(transactionId));
 
         } catch (NumberFormatException e) {
             throw new TransactionNotFoundException(id);
@@ -215,7 +278,6 @@ public class WalletService {
             throws IncomeCategoryAlreadyExistsException,
             OutcomeCategoryAlreadyExistsException {
         Wallet wallet = user.getWallet();
-        List<Transaction> transactions = wallet.getTransactions();
 
         // Проверяем, что новая категория не существует в том же типе
         if ("income".equalsIgnoreCase(type)) {
@@ -230,22 +292,7 @@ public class WalletService {
         }
 
         // Обновляем категорию в транзакциях
-        for (Transaction transaction : transactions) {
-            if (transaction.getCategory().equals(oldCategory)) {
-                // Проверяем тип транзакции, если указан тип
-                if (type == null ||
-                        ("income".equalsIgnoreCase(type) && transaction.getTransactionType() == TransactionType.INCOME)
-                        ||
-                        ("outcome".equalsIgnoreCase(type) &&
-                                (transaction.getTransactionType() == TransactionType.OUTCOME_PLANNED ||
-                                        transaction.getTransactionType() == TransactionType.OUTCOME_SPENT))) {
-                    transaction.setCategory(newCategory);
-                }
-            }
-        }
-
-        user.getWallet().setTransactions(transactions);
-        user.getWallet().calculateTranscactionsIDs();
-        userService.updateUser(user);
+        wallet.renameCategory(oldCategory, type, newCategory);
+        userService.logWalletChange(user, JournalRecord.rename(oldCategory, type, newCategory));
     }
 }
\ No newline at end of file
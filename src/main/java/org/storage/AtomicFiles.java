@@ -0,0 +1,97 @@
+package org.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Атомарная запись файлов.
+ *
+ *        Данные пишутся во временный файл рядом с целевым, сбрасываются на
+ *        диск (fsync) и только потом атомарно переименовываются в целевой.
+ *        Сбой во время записи оставляет на диске прежнюю версию файла.
+ */
+public final class AtomicFiles {
+
+    /**
+     * Содержимое файла, записываемое в поток
+     */
+    @FunctionalInterface
+    public interface Content {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Атомарно заменяет файл новым содержимым.
+     *
+     * @param target  целевой файл
+     * @param content содержимое
+     * @throws IOException при ошибке записи (целевой файл не изменяется)
+     */
+    public static void write(Path target, Content content) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temp = parent.resolve(target.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+                OutputStream out = new BufferedOutputStream(file);
+                // содержимое может закрыть поток (Jackson), fsync выполняется после
+                content.writeTo(new FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.flush();
+                    }
+                });
+                out.flush();
+                file.getFD().sync();
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        syncDirectory(parent);
+    }
+
+    /**
+     * Атомарно заменяет файл массивом байт.
+     *
+     * @param target целевой файл
+     * @param bytes  содержимое
+     * @throws IOException при ошибке записи
+     */
+    public static void write(Path target, byte[] bytes) throws IOException {
+        write(target, out -> out.write(bytes));
+    }
+
+    /**
+     * Сбрасывает на диск запись каталога, чтобы переименование пережило сбой.
+     * Не на всех платформах каталог можно открыть - тогда шаг пропускается.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | UnsupportedOperationException e) {
+            // платформа не поддерживает fsync каталога
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package org.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.model.Transaction;
+import org.model.TransactionType;
+import org.model.User;
+import org.model.Wallet;
+
+/**
+ * Хранилище всех пользователей в одном компактном двоичном файле
+ * с журналом изменений рядом с файлом.
+ *
+ *        Формат: сигнатура, версия формата, число пользователей и далее
+ *        пользователи подряд (имя, пароль, соль, кошелек). Кошелек пишется
+ *        в формате {@link WalletCodec}, за ним - версия кошелька. Файлы
+ *        версий 1 (без словаря категорий) и 2 (без версии кошелька)
+ *        читаются и при следующей записи переводятся в версию 3.
+ *        Рядом с файлом хранится индекс имен ({@link UserIndex}): поиск
+ *        пользователя читает только его имя, пароль и соль, кошелек
+ *        читается при первом обращении к нему.
+ *        При первом запуске данные переносятся из JSON файла пользователей.
+ */
+public class BinaryUserStorage implements UserStorage {
+
+    /** Сигнатура файла: "UWLT" */
+    private static final int MAGIC = 0x55574C54;
+    private static final byte VERSION = 3;
+    private static final byte VERSION_DICTIONARY = 2;
+    private static final byte VERSION_PLAIN = 1;
+    private static final String SUFFIX = ".bin";
+
+    private final Path file;
+    private final WalletJournal journal;
+
+    /** Индекс имя -> положение пользователя в файле */
+    private final UserIndex index;
+
+    /**
+     * @param file путь к двоичному файлу пользователей
+     */
+    public BinaryUserStorage(Path file) {
+        this(file, null);
+    }
+
+    /**
+     * @param file       путь к двоичному файлу пользователей
+     * @param legacyFile JSON файл пользователей для переноса (может быть null)
+     */
+    public BinaryUserStorage(Path file, Path legacyFile) {
+        this.file = file;
+        this.journal = new WalletJournal(Paths.get(file + ".journal"));
+        this.index = new UserIndex(Paths.get(file + ".idx"));
+        if (legacyFile != null && !Files.exists(file)) {
+            migrate(legacyFile);
+        }
+    }
+
+    /**
+     * Двоичный файл рядом с JSON файлом пользователей:
+     * data/users.json -> data/users.bin
+     *
+     * @param file путь к JSON файлу пользователей
+     * @return путь к двоичному файлу
+     */
+    static Path fileFor(String file) {
+        return Paths.get(file.endsWith(".json")
+                ? file.substring(0, file.length() - ".json".length()) + SUFFIX
+                : file + SUFFIX);
+    }
+
+    @Override
+    public synchronized List<User> loadAll() {
+        List<User> users = readSnapshot();
+        Map<String, User> byName = new HashMap<>();
+        for (User user : users) {
+            byName.put(UserStorage.normalize(user.getUsername()), user);
+        }
+        for (JournalRecord record : journal.readAll()) {
+            User user = record.getUsername() == null ? null : byName.get(UserStorage.normalize(record.getUsername()));
+            if (user != null) { // пользователь мог быть удален после записи
+                record.replay(user.getWallet());
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Все пользователи по индексу в порядке файла, без кошельков
+     * (см. {@link #load(String)}).
+     */
+    @Override
+    public synchronized List<User> loadAllHeaders() {
+        List<User> users = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return users;
+        }
+        if (!index.isFreshFor(file.toFile()) && !index.load(file.toFile())) {
+            rebuildIndex();
+        }
+        for (String key : index.keys()) {
+            User user = load(key);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Поиск пользователя по индексу: читаются только имя, пароль и соль.
+     * Отсутствующий или устаревший индекс перестраивается одним проходом,
+     * в том числе если по индексу найден другой пользователь.
+     */
+    @Override
+    public synchronized User load(String username) {
+        String key = UserStorage.normalize(username);
+        try {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                long[] location = locate(key);
+                if (location == null) {
+                    return null;
+                }
+                User user = new User();
+                try (RandomAccessFile input = new RandomAccessFile(file.toFile(), "r")) {
+                    input.seek(location[0]);
+                    readHeader(input, user);
+                }
+                if (verify(user, key)) {
+                    user.setWalletLoader(() -> loadWallet(username));
+                    return user;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения пользователя по индексу: " + e.getMessage());
+            index.clear();
+            return null;
+        }
+    }
+
+    /**
+     * Читает кошелек пользователя из текущего файла и применяет журнал
+     */
+    private synchronized Wallet loadWallet(String username) {
+        String key = UserStorage.normalize(username);
+        try {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                long[] location = locate(key);
+                if (location == null) {
+                    break;
+                }
+                byte[] bytes = new byte[(int) location[1]];
+                byte format;
+                try (RandomAccessFile input = new RandomAccessFile(file.toFile(), "r")) {
+                    input.seek(Integer.BYTES);
+                    format = input.readByte();
+                    input.seek(location[0]);
+                    input.readFully(bytes);
+                }
+                User user = readRecord(new DataInputStream(new ByteArrayInputStream(bytes)), format);
+                if (verify(user, key)) {
+                    for (JournalRecord record : journal.readFor(username)) {
+                        record.replay(user.getWallet());
+                    }
+                    return user.getWallet();
+                }
+            }
+            throw new IllegalStateException("Пользователь " + username + " не найден в файле " + file);
+        } catch (IOException e) {
+            index.clear();
+            throw new UncheckedIOException("Ошибка чтения кошелька пользователя " + username, e);
+        }
+    }
+
+    /**
+     * @return [смещение, длина] пользователя по индексу или null, если его нет
+     */
+    private long[] locate(String key) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        if (!index.isFreshFor(file.toFile()) && !index.load(file.toFile())) {
+            rebuildIndex();
+        }
+        return index.get(key);
+    }
+
+    /**
+     * Проверяет, что пользователь, прочитанный по индексу, - искомый;
+     * иначе индекс не соответствует файлу и перестраивается.
+     */
+    private boolean verify(User user, String key) {
+        if (user.getUsername() != null && UserStorage.normalize(user.getUsername()).equals(key)) {
+            return true;
+        }
+        rebuildIndex();
+        return false;
+    }
+
+    /**
+     * Перестраивает индекс одним проходом по файлу
+     */
+    private void rebuildIndex() {
+        index.clear();
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+            DataInputStream in = new DataInputStream(stream);
+            byte format = readFormat(in);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long start = bytes.length - stream.available();
+                User user = readRecord(in, format);
+                long end = bytes.length - stream.available();
+                index.put(UserStorage.normalize(user.getUsername()), start, end - start);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ошибка построения индекса пользователей: " + e.getMessage());
+            index.clear();
+            return;
+        }
+        index.save(file.toFile());
+    }
+
+    /**
+     * Записывает пользователей, запоминая положение каждого в индексе.
+     * Кошельки копий, которые не были в памяти, читаются из прежнего файла
+     * по одному и не запоминаются; индекс заменяется после успешной записи.
+     */
+    @Override
+    public synchronized boolean saveAll(Collection<User> users) {
+        Map<String, long[]> locations = new HashMap<>();
+        Map<String, Long> versions = new HashMap<>();
+        try {
+            AtomicFiles.write(file, stream -> {
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(users.size());
+                long position = Integer.BYTES + 1 + Integer.BYTES;
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                for (User user : users) {
+                    buffer.reset();
+                    String key = UserStorage.normalize(user.getUsername());
+                    versions.put(key, writeUser(new DataOutputStream(buffer), user));
+                    locations.put(key, new long[] { position, buffer.size() });
+                    buffer.writeTo(out);
+                    position += buffer.size();
+                }
+                out.flush();
+            });
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ошибка записи пользователей в файл: " + e.getMessage());
+            index.clear(); // перечитывается для файла на диске
+            return false;
+        }
+        index.clear();
+        locations.forEach((key, location) -> index.put(key, location[0], location[1]));
+        index.save(file.toFile());
+        try {
+            journal.retainNewerThan(versions); // остальные изменения уже содержатся в снимке
+        } catch (IOException e) {
+            System.err.println("Ошибка очистки журнала: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Переписывает файл с новым снимком пользователя; кошельки остальных
+     * пользователей читаются из прежнего файла по одному.
+     */
+    @Override
+    public synchronized boolean save(User user) {
+        String key = UserStorage.normalize(user.getUsername());
+        List<User> users = loadAllHeaders();
+        users.removeIf(other -> UserStorage.normalize(other.getUsername()).equals(key));
+        users.add(user);
+        return saveAll(users);
+    }
+
+    /**
+     * Переписывает файл без пользователя
+     */
+    @Override
+    public synchronized boolean delete(String username) {
+        String key = UserStorage.normalize(username);
+        List<User> users = loadAllHeaders();
+        users.removeIf(other -> UserStorage.normalize(other.getUsername()).equals(key));
+        return saveAll(users);
+    }
+
+    @Override
+    public void append(User user, JournalRecord record) throws IOException {
+        record.setUsername(user.getUsername());
+        journal.append(record);
+    }
+
+    private List<User> readSnapshot() {
+        List<User> users = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return users;
+        }
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(file))) {
+            DataInputStream in = new DataInputStream(stream);
+            byte version = readFormat(in);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                users.add(readRecord(in, version));
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения файла пользователей: " + e.getMessage());
+            return new ArrayList<>();
+        }
+        return users;
+    }
+
+    /**
+     * Читает сигнатуру и версию формата файла
+     */
+    private byte readFormat(DataInput in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("неизвестный формат файла " + file);
+        }
+        byte version = in.readByte();
+        if (version < VERSION_PLAIN || version > VERSION) {
+            throw new IOException("неподдерживаемая версия формата " + version);
+        }
+        return version;
+    }
+
+    private static User readRecord(DataInput in, byte format) throws IOException {
+        return format == VERSION_PLAIN ? readPlainUser(in) : readUser(in, format);
+    }
+
+    /**
+     * Читает имя, пароль и соль (начало записи пользователя любой версии)
+     */
+    private static void readHeader(DataInput in, User user) throws IOException {
+        user.setUsername(readString(in));
+        user.setPassword(readString(in));
+        user.setSalt(readString(in));
+    }
+
+    /**
+     * @return записанная версия кошелька
+     */
+    private static long writeUser(DataOutputStream out, User user) throws IOException {
+        Wallet wallet = user.readWallet(); // кошелек в копию снимка не записывается
+        writeString(out, user.getUsername());
+        writeString(out, user.getPassword());
+        writeString(out, user.getSalt());
+        WalletCodec.write(out, wallet);
+        WalletCodec.writeVarLong(out, wallet.getVersion());
+        return wallet.getVersion();
+    }
+
+    private static User readUser(DataInput in, byte format) throws IOException {
+        User user = new User();
+        readHeader(in, user);
+        user.setWallet(WalletCodec.read(in));
+        if (format > VERSION_DICTIONARY) {
+            user.getWallet().setVersion(WalletCodec.readVarLong(in));
+        }
+        return user;
+    }
+
+    /**
+     * Чтение пользователя в формате версии 1 (без словаря категорий)
+     */
+    private static User readPlainUser(DataInput in) throws IOException {
+        User user = new User();
+        readHeader(in, user);
+        int lastTransactionId = in.readInt();
+        int size = in.readInt();
+        List<Transaction> transactions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Transaction transaction = new Transaction();
+            transaction.setId(in.readInt());
+            transaction.setCategory(readString(in));
+            transaction.setAmount(in.readLong());
+            transaction.setTransactionType(TransactionType.values()[in.readUnsignedByte()]);
+            if (in.readBoolean()) {
+                long seconds = in.readLong();
+                transaction.setTimestamp(LocalDateTime.ofEpochSecond(seconds, in.readInt(), ZoneOffset.UTC));
+            }
+            transactions.add(transaction);
+        }
+        Wallet wallet = new Wallet(transactions);
+        wallet.setLastTransactionId(lastTransactionId);
+        user.setWallet(wallet);
+        return user;
+    }
+
+    /**
+     * Переносит пользователей из JSON файла (вместе с его журналом).
+     * Прежний файл переименовывается в *.migrated.
+     */
+    private void migrate(Path legacyFile) {
+        try {
+            if (!Files.exists(legacyFile) || Files.size(legacyFile) == 0) {
+                return;
+            }
+            List<User> users = new JsonFileStorage(legacyFile.toString()).loadAll();
+            if (users.isEmpty() || !saveAll(users)) {
+                return;
+            }
+            Files.move(legacyFile, Paths.get(legacyFile + ".migrated"));
+            Files.deleteIfExists(Paths.get(legacyFile + ".journal"));
+            Files.deleteIfExists(Paths.get(legacyFile + ".idx"));
+            System.out.println("Пользователи перенесены в файл " + file + ": " + users.size());
+        } catch (IOException e) {
+            System.err.println("Ошибка переноса пользователей: " + e.getMessage());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,111 @@
+package org.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Словарь категорий кошелька в файле.
+ *
+ *        Категория получает номер при первом появлении и дописывается в
+ *        конец файла; номера никогда не меняются, поэтому любая версия
+ *        файла транзакций, ссылающаяся на номера, остается корректной.
+ */
+public class CategoryDictionary {
+
+    private final Path path;
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+
+    /**
+     * @param path путь к файлу словаря (создается при первой записи)
+     */
+    public CategoryDictionary(Path path) {
+        this.path = path;
+        load();
+    }
+
+    /**
+     * @param code номер категории
+     * @return имя категории
+     */
+    public synchronized String get(int code) {
+        if (code < 0 || code >= names.size()) {
+            throw new IllegalStateException("Неизвестный номер категории " + code + " в " + path);
+        }
+        return names.get(code);
+    }
+
+    /**
+     * Номер категории без добавления в словарь
+     *
+     * @param name имя категории
+     * @return номер категории или -1, если ее нет
+     */
+    public synchronized int find(String name) {
+        Integer code = codes.get(name);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Номер категории; новая категория дописывается в файл словаря.
+     *
+     * @param name имя категории
+     * @return номер категории
+     */
+    public synchronized int codeOf(String name) {
+        Integer code = codes.get(name);
+        if (code != null) {
+            return code;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new DataOutputStream(bytes).writeUTF(name);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+                channel.force(true);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Ошибка записи словаря категорий " + path, e);
+        }
+        codes.put(name, names.size());
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    /**
+     * Читает словарь; недописанная последняя запись (сбой при записи) отбрасывается.
+     */
+    private void load() {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(path))) {
+            DataInputStream in = new DataInputStream(stream);
+            while (true) {
+                String name = in.readUTF();
+                codes.putIfAbsent(name, names.size());
+                names.add(name);
+            }
+        } catch (EOFException e) {
+            // конец словаря
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения словаря категорий " + path + ": " + e.getMessage());
+        }
+    }
+}
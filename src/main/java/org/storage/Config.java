@@ -47,4 +47,23 @@ public class Config {
     public static String get(String key, String defaultValue) {
         return PROPERTIES.getProperty(key, defaultValue);
     }
+
+    /**
+     * Получение числового значения с дефолтом
+     * @param key          ключ
+     * @param defaultValue значение по умолчанию (если ключа нет или значение не число)
+     * @return значение настройки
+     */
+    public static long getLong(String key, long defaultValue) {
+        String value = PROPERTIES.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Неверное числовое значение параметра " + key + ": " + value);
+            return defaultValue;
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package org.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.model.User;
+
+/**
+ * Хранилище пользователей только в памяти (для тестов и замеров).
+ *
+ *        Ничего не пишет на диск и хранит ссылки на сохраненные объекты,
+ *        поэтому изменения кошельков уже видны в хранилище и журнал не
+ *        нужен. Данные теряются при завершении программы.
+ */
+public class InMemoryUserStorage implements UserStorage {
+
+    /** Нормализованное имя -> пользователь */
+    private final Map<String, User> users = new LinkedHashMap<>();
+
+    @Override
+    public synchronized List<User> loadAll() {
+        return new ArrayList<>(users.values());
+    }
+
+    @Override
+    public synchronized User load(String username) {
+        return users.get(UserStorage.normalize(username));
+    }
+
+    @Override
+    public synchronized boolean saveAll(Collection<User> snapshot) {
+        users.clear();
+        for (User user : snapshot) {
+            users.put(UserStorage.normalize(user.getUsername()), user);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isPartitioned() {
+        return true;
+    }
+
+    @Override
+    public synchronized boolean save(User user) {
+        users.put(UserStorage.normalize(user.getUsername()), user);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean delete(String username) {
+        users.remove(UserStorage.normalize(username));
+        return true;
+    }
+
+    @Override
+    public User snapshotOf(User user) {
+        return user; // хранятся сами объекты, сериализации нет
+    }
+
+    @Override
+    public void append(User user, JournalRecord record) {
+        // кошелек изменен на месте - хранилище уже содержит изменение
+    }
+}
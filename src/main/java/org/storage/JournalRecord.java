@@ -0,0 +1,250 @@
+package org.storage;
+
+import java.util.List;
+
+import org.model.Transaction;
+import org.model.TransactionType;
+import org.model.Wallet;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Запись журнала изменений кошелька.
+ *
+ *        Каждая запись описывает одно изменение кошелька пользователя и
+ *        умеет повторно применить его к кошельку при восстановлении.
+ *        Запись хранит версию кошелька после изменения: если снимок уже
+ *        содержит эту версию, запись при восстановлении пропускается.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JournalRecord {
+
+    /** Вид изменения */
+    public enum Operation {
+        /** Добавление транзакции */
+        ADD,
+        /** Добавление пакета транзакций */
+        ADD_ALL,
+        /** Удаление транзакции по ID */
+        REMOVE,
+        /** Удаление всех транзакций категории и типа */
+        REMOVE_CATEGORY,
+        /** Переименование категории */
+        RENAME
+    }
+
+    private Operation operation; // вид изменения
+    private String username; // владелец кошелька
+    private Transaction transaction; // добавленная транзакция (ADD)
+    private List<Transaction> transactions; // добавленный пакет (ADD_ALL)
+    private Long transactionId; // ID удаленной транзакции (REMOVE)
+    private String category; // категория (REMOVE_CATEGORY, RENAME)
+    private String newCategory; // новое имя категории (RENAME)
+    private String categoryType; // income/outcome или null для всех типов (RENAME)
+    private TransactionType transactionType; // тип удаляемых транзакций (REMOVE_CATEGORY)
+    private Long version; // версия кошелька после изменения (null - в старых журналах)
+    private Boolean stableIds; // true - удаление не пересчитывает ID (null - в старых журналах)
+
+    /**
+     * Конструктор по умолчанию (для Jackson).
+     */
+    public JournalRecord() {
+    }
+
+    private JournalRecord(Operation operation) {
+        this.operation = operation;
+        this.stableIds = true;
+    }
+
+    /**
+     * @param transaction добавленная транзакция
+     * @return запись о добавлении транзакции
+     */
+    public static JournalRecord add(Transaction transaction) {
+        JournalRecord record = new JournalRecord(Operation.ADD);
+        record.transaction = transaction;
+        return record;
+    }
+
+    /**
+     * @param transactions добавленный пакет транзакций
+     * @return запись о добавлении пакета
+     */
+    public static JournalRecord addAll(List<Transaction> transactions) {
+        JournalRecord record = new JournalRecord(Operation.ADD_ALL);
+        record.transactions = transactions;
+        return record;
+    }
+
+    /**
+     * @param transactionId ID удаленной транзакции
+     * @return запись об удалении транзакции
+     */
+    public static JournalRecord remove(long transactionId) {
+        JournalRecord record = new JournalRecord(Operation.REMOVE);
+        record.transactionId = transactionId;
+        return record;
+    }
+
+    /**
+     * @param category категория
+     * @param type     тип удаляемых транзакций
+     * @return запись об удалении транзакций категории
+     */
+    public static JournalRecord removeCategory(String category, TransactionType type) {
+        JournalRecord record = new JournalRecord(Operation.REMOVE_CATEGORY);
+        record.category = category;
+        record.transactionType = type;
+        return record;
+    }
+
+    /**
+     * @param oldCategory  старое имя категории
+     * @param type         income/outcome или null
+     * @param newCategory  новое имя категории
+     * @return запись о переименовании категории
+     */
+    public static JournalRecord rename(String oldCategory, String type, String newCategory) {
+        JournalRecord record = new JournalRecord(Operation.RENAME);
+        record.category = oldCategory;
+        record.categoryType = type;
+        record.newCategory = newCategory;
+        return record;
+    }
+
+    /**
+     * Повторно применяет изменение к кошельку.
+     *
+     * @param wallet кошелек владельца записи
+     */
+    public void applyTo(Wallet wallet) {
+        switch (operation) {
+            case ADD -> wallet.addTransaction(transaction);
+            case ADD_ALL -> wallet.addTransactions(transactions);
+            case REMOVE -> wallet.removeTransaction(transactionId);
+            case REMOVE_CATEGORY -> wallet.removeTransactionsByCategoryAndType(category, transactionType);
+            case RENAME -> wallet.renameCategory(category, categoryType, newCategory);
+        }
+        if (stableIds == null && (operation == Operation.REMOVE || operation == Operation.REMOVE_CATEGORY)) {
+            wallet.calculateTranscactionsIDs(); // прежде удаление пересчитывало ID
+        }
+    }
+
+    public Boolean getStableIds() {
+        return stableIds;
+    }
+
+    public void setStableIds(Boolean stableIds) {
+        this.stableIds = stableIds;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public void setOperation(Operation operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Применяет запись при восстановлении: ошибка одной записи
+     * не прерывает восстановление остальных.
+     *
+     * @param wallet кошелек владельца записи
+     */
+    public void replay(Wallet wallet) {
+        if (version != null && version <= wallet.getVersion()) {
+            return; // изменение уже содержится в снимке
+        }
+        try {
+            applyTo(wallet);
+        } catch (RuntimeException e) {
+            System.err.println("Ошибка применения записи журнала: " + e.getMessage());
+        }
+        if (version != null) {
+            wallet.setVersion(version);
+        }
+    }
+
+    /**
+     * @param snapshotVersion версия кошелька в записанном снимке
+     * @return true если изменение новее снимка и запись нужно сохранить в журнале
+     */
+    public boolean isNewerThan(long snapshotVersion) {
+        return version != null && version > snapshotVersion;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public void setTransaction(Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    public List<Transaction> getTransactions() {
+        return transactions;
+    }
+
+    public void setTransactions(List<Transaction> transactions) {
+        this.transactions = transactions;
+    }
+
+    public Long getTransactionId() {
+        return transactionId;
+    }
+
+    public void setTransactionId(Long transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    public String getNewCategory() {
+        return newCategory;
+    }
+
+    public void setNewCategory(String newCategory) {
+        this.newCategory = newCategory;
+    }
+
+    public String getCategoryType() {
+        return categoryType;
+    }
+
+    public void setCategoryType(String categoryType) {
+        this.categoryType = categoryType;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public TransactionType getTransactionType() {
+        return transactionType;
+    }
+
+    public void setTransactionType(TransactionType transactionType) {
+        this.transactionType = transactionType;
+    }
+}
@@ -0,0 +1,458 @@
+package org.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.model.User;
+import org.model.Wallet;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Хранилище всех пользователей в одном JSON файле (массив пользователей)
+ * с общим журналом изменений и индексом имен рядом с файлом.
+ */
+public class JsonFileStorage implements UserStorage {
+
+    private static final byte[] ARRAY_START = "[ ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ARRAY_SEPARATOR = ", ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ARRAY_END = " ]".getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper = createObjectMapper();
+    private final File file;
+    private final WalletJournal journal;
+
+    /** Индекс имя -> положение пользователя в файле */
+    private final UserIndex index;
+
+    /**
+     * @param filePath путь к файлу пользователей
+     */
+    public JsonFileStorage(String filePath) {
+        createFile(filePath);
+        this.file = new File(filePath);
+        this.journal = new WalletJournal(Paths.get(filePath + ".journal"));
+        this.index = new UserIndex(Paths.get(filePath + ".idx"));
+    }
+
+    /**
+     * @return ObjectMapper с настройками файлов пользователей
+     */
+    static ObjectMapper createObjectMapper() {
+        ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        mapper.registerModule(new JavaTimeModule());
+        mapper.findAndRegisterModules();
+        return mapper;
+    }
+
+    @Override
+    public synchronized List<User> loadAll() {
+        List<User> users = readSnapshot();
+        replayJournal(users);
+        return users;
+    }
+
+    /**
+     * Все пользователи по индексу в порядке файла, без кошельков
+     * (см. {@link #load(String)}).
+     */
+    @Override
+    public synchronized List<User> loadAllHeaders() {
+        List<User> users = new ArrayList<>();
+        if (file.length() == 0) {
+            return users;
+        }
+        if (!index.isFreshFor(file) && !index.load(file)) {
+            rebuildIndex();
+        }
+        for (String key : index.keys()) {
+            User user = load(key);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Поиск пользователя по индексу: читаются только байты его объекта,
+     * а из них - только имя, пароль и соль. Кошелек читается из файла
+     * (и журнал применяется) при первом обращении к нему.
+     * Отсутствующий или устаревший индекс перестраивается одним проходом,
+     * в том числе если объект по индексу принадлежит другому пользователю
+     * (файл заменен файлом той же длины и с тем же временем изменения).
+     */
+    @Override
+    public synchronized User load(String username) {
+        String key = UserStorage.normalize(username);
+        try {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                byte[] bytes = readIndexed(username);
+                if (bytes == null) {
+                    return null;
+                }
+                User user = readHeader(objectMapper, bytes);
+                if (verify(user, key)) {
+                    user.setWalletLoader(() -> loadWallet(username));
+                    return user;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения пользователя по индексу: " + e.getMessage());
+            index.clear();
+            return null;
+        }
+    }
+
+    /**
+     * Читает кошелек пользователя из текущего файла и применяет журнал
+     */
+    private synchronized Wallet loadWallet(String username) {
+        String key = UserStorage.normalize(username);
+        try {
+            for (int attempt = 0; attempt < 2; attempt++) {
+                byte[] bytes = readIndexed(username);
+                if (bytes == null) {
+                    break;
+                }
+                User user = objectMapper.readValue(bytes, User.class);
+                if (verify(user, key)) {
+                    replayJournal(username, user.getWallet());
+                    return user.getWallet();
+                }
+            }
+            throw new IllegalStateException("Пользователь " + username + " не найден в файле " + file);
+        } catch (IOException e) {
+            index.clear();
+            throw new UncheckedIOException("Ошибка чтения кошелька пользователя " + username, e);
+        }
+    }
+
+    /**
+     * Проверяет, что объект, прочитанный по индексу, принадлежит
+     * пользователю; иначе индекс не соответствует файлу и перестраивается.
+     *
+     * @return true если имя совпадает
+     */
+    private boolean verify(User user, String key) {
+        if (user.getUsername() != null && UserStorage.normalize(user.getUsername()).equals(key)) {
+            return true;
+        }
+        rebuildIndex();
+        return false;
+    }
+
+    /**
+     * @return байты объекта пользователя по индексу или null, если его нет
+     */
+    private byte[] readIndexed(String username) throws IOException {
+        if (file.length() == 0) {
+            return null;
+        }
+        if (!index.isFreshFor(file) && !index.load(file)) {
+            rebuildIndex();
+        }
+        long[] location = index.get(UserStorage.normalize(username));
+        if (location == null) {
+            return null;
+        }
+        byte[] bytes = new byte[(int) location[1]];
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            input.seek(location[0]);
+            input.readFully(bytes);
+        }
+        return bytes;
+    }
+
+    /**
+     * Перестраивает индекс потоковым проходом по файлу: у каждого пользователя
+     * читается только имя, кошельки пропускаются без разбора (skipChildren).
+     */
+    private void rebuildIndex() {
+        index.clear();
+        try (JsonParser parser = objectMapper.getFactory().createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                long start = parser.currentTokenLocation().getByteOffset();
+                String username = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    parser.nextToken();
+                    if ("username".equals(field)) {
+                        username = parser.getValueAsString();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                long end = parser.currentTokenLocation().getByteOffset() + 1; // после '}'
+                if (username != null) {
+                    index.put(UserStorage.normalize(username), start, end - start);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка построения индекса пользователей: " + e.getMessage());
+            index.clear();
+            return;
+        }
+        index.save(file);
+    }
+
+    /**
+     * Читает из JSON объекта пользователя только имя, пароль и соль,
+     * кошелек пропускается без разбора.
+     *
+     * @param bytes JSON объект пользователя
+     * @return пользователь без кошелька (кошелек задает вызывающий)
+     * @throws IOException при ошибке разбора
+     */
+    static User readHeader(ObjectMapper mapper, byte[] bytes) throws IOException {
+        User user = new User();
+        try (JsonParser parser = mapper.getFactory().createParser(bytes)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Ожидался объект пользователя");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "username" -> user.setUsername(parser.getValueAsString());
+                    case "password" -> user.setPassword(parser.getValueAsString());
+                    case "salt" -> user.setSalt(parser.getValueAsString());
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Применяет записи журнала к кошельку одного пользователя
+     */
+    private void replayJournal(String username, Wallet wallet) {
+        for (JournalRecord record : journal.readFor(username)) {
+            record.replay(wallet);
+        }
+    }
+
+    /**
+     * Применяет записи журнала к кошелькам загруженных пользователей
+     */
+    private void replayJournal(List<User> users) {
+        Map<String, User> byName = new HashMap<>();
+        for (User user : users) {
+            byName.put(UserStorage.normalize(user.getUsername()), user);
+        }
+        for (JournalRecord record : journal.readAll()) {
+            User user = record.getUsername() == null ? null : byName.get(UserStorage.normalize(record.getUsername()));
+            if (user != null) { // пользователь мог быть удален после записи или не загружен
+                record.replay(user.getWallet());
+            }
+        }
+    }
+
+    /**
+     * Читает снимок из файла (файл только читается, пустой файл - нет пользователей)
+     */
+    private List<User> readSnapshot() {
+        if (file.length() == 0) {
+            return new ArrayList<>();
+        }
+
+        try {
+            // ID транзакций не пересчитываются: на них ссылаются записи журнала
+            return objectMapper.readValue(file, new TypeReference<ArrayList<User>>() {
+            });
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения файла пользователей: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Записывает массив пользователей, запоминая положение каждого объекта в индексе.
+     */
+    @Override
+    public synchronized boolean saveAll(Collection<User> users) {
+        return write(users, false, null);
+    }
+
+    /**
+     * Записывает массив пользователей; объекты пользователей без
+     * несохраненных изменений копируются байтами из прежнего файла,
+     * их кошельки не читаются и не сериализуются.
+     */
+    @Override
+    public synchronized boolean saveChanged(Collection<User> users) {
+        return write(users, true, null);
+    }
+
+    /**
+     * Переписывает файл с новым снимком пользователя; остальные пользователи
+     * копируются байтами из прежнего файла.
+     */
+    @Override
+    public synchronized boolean save(User user) {
+        String key = UserStorage.normalize(user.getUsername());
+        List<User> users = loadAllHeaders();
+        users.removeIf(other -> UserStorage.normalize(other.getUsername()).equals(key));
+        users.add(user);
+        return write(users, true, key);
+    }
+
+    /**
+     * Переписывает файл без пользователя; остальные пользователи
+     * копируются байтами из прежнего файла.
+     */
+    @Override
+    public synchronized boolean delete(String username) {
+        String key = UserStorage.normalize(username);
+        List<User> users = loadAllHeaders();
+        users.removeIf(other -> UserStorage.normalize(other.getUsername()).equals(key));
+        return write(users, true, key);
+    }
+
+    /**
+     * Кошельки копий, которые не были в памяти, читаются из прежнего файла
+     * по одному и не запоминаются; индекс заменяется после успешной записи.
+     *
+     * @param reuse     true - переносить неизмененных пользователей из прежнего файла
+     * @param rewritten пользователь, который сериализуется заново, даже если
+     *                  не изменен (null - нет такого)
+     */
+    private boolean write(Collection<User> users, boolean reuse, String rewritten) {
+        Map<String, long[]> previous = reuse ? previousLocations(users, rewritten) : Map.of();
+        Map<String, long[]> locations = new HashMap<>();
+        Map<String, Long> versions = new HashMap<>();
+        try (RandomAccessFile source = previous.isEmpty() ? null : new RandomAccessFile(file, "r")) {
+            AtomicFiles.write(file.toPath(), out -> {
+                long position = 0;
+                out.write(ARRAY_START);
+                position += ARRAY_START.length;
+                boolean first = true;
+                for (User user : users) {
+                    if (!first) {
+                        out.write(ARRAY_SEPARATOR);
+                        position += ARRAY_SEPARATOR.length;
+                    }
+                    String key = UserStorage.normalize(user.getUsername());
+                    long[] location = previous.get(key);
+                    byte[] bytes;
+                    if (location != null) {
+                        bytes = new byte[(int) location[1]];
+                        source.seek(location[0]);
+                        source.readFully(bytes);
+                        versions.put(key, WalletJournal.ALL_RECORDS);
+                    } else {
+                        Wallet wallet = user.readWallet();
+                        bytes = objectMapper.writeValueAsBytes(withWallet(user, wallet));
+                        versions.put(key, wallet.getVersion());
+                    }
+                    locations.put(key, new long[] { position, bytes.length });
+                    out.write(bytes);
+                    position += bytes.length;
+                    first = false;
+                }
+                out.write(ARRAY_END);
+            });
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ошибка записи пользователей в файл: " + e.getMessage());
+            index.clear(); // перечитывается для файла на диске
+            return false;
+        }
+        index.clear();
+        locations.forEach((key, location) -> index.put(key, location[0], location[1]));
+        index.save(file);
+        try {
+            // остальные изменения уже содержатся в снимке
+            journal.retainNewerThan(versions);
+        } catch (IOException e) {
+            System.err.println("Ошибка очистки журнала: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Пользователь с прочитанным кошельком для сериализации (кошелек
+     * в копию снимка не записывается)
+     */
+    private static User withWallet(User user, Wallet wallet) {
+        User view = new User(user.getUsername(), user.getPassword(), wallet);
+        view.setSalt(user.getSalt());
+        return view;
+    }
+
+    /**
+     * @return положение в текущем файле пользователей без несохраненных изменений
+     */
+    private Map<String, long[]> previousLocations(Collection<User> users, String rewritten) {
+        Map<String, long[]> locations = new HashMap<>();
+        if (file.length() == 0) {
+            return locations;
+        }
+        if (!index.isFreshFor(file) && !index.load(file)) {
+            rebuildIndex();
+        }
+        for (User user : users) {
+            String key = UserStorage.normalize(user.getUsername());
+            long[] location = user.isDirty() || key.equals(rewritten) ? null : index.get(key);
+            if (location != null) {
+                locations.put(key, location);
+            }
+        }
+        return locations;
+    }
+
+    @Override
+    public void append(User user, JournalRecord record) throws IOException {
+        record.setUsername(user.getUsername());
+        journal.append(record);
+    }
+
+    /**
+     * Создает файл если его нет
+     * 
+     * @param filename - путь к файлу
+     */
+    public static void createFile(String filename) {
+        File file = new File(filename);
+        if (!file.exists() || file.length() == 0) {
+            try {
+                File parentDir = file.getParentFile();
+                if (parentDir != null && !parentDir.exists()) {
+                    boolean dirsCreated = parentDir.mkdirs();
+                    if (!dirsCreated) {
+                        System.err.println("Не удалось создать директорию: " + parentDir.getAbsolutePath());
+                    }
+                }
+
+                // Создаем файл
+                if (!file.exists()){
+                    boolean fileCreated = file.createNewFile();
+                    if (!fileCreated) {
+                        System.err.println("Не удалось создать файл: " + filename);
+                    }
+                }
+                
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package org.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.model.Transaction;
+import org.model.TransactionStore;
+import org.model.TransactionType;
+import org.model.TransactionVisitor;
+
+/**
+ * Транзакции кошелька в файле записей фиксированной длины,
+ * отображенном в память (MappedByteBuffer).
+ *
+ *        Транзакции не загружаются в кучу: обход и агрегаты читают записи
+ *        прямо из страничного кэша, а открытие сегмента читает только
+ *        заголовок. Обход посетителем, выборка, подсчет итогов и удаление
+ *        категории читают поля прямо из записей, объекты транзакций
+ *        создаются только для возвращаемых записей. Удаление помечает
+ *        запись удаленной, место освобождается
+ *        при перестроении сегмента. Категории хранятся номерами из
+ *        {@link CategoryDictionary}.
+ *
+ *        Заголовок (64 байта): сигнатура, версия, число записей, число
+ *        живых записей, следующий ID. Запись (32 байта): ID, сумма, время
+ *        (микросекунды от эпохи), номер категории, код типа (как в
+ *        {@link WalletCodec}, в том числе код транзакции без типа), флаги.
+ */
+public class MappedTransactionSegment implements TransactionStore, Closeable {
+
+    /** Сигнатура файла: "UWSG" */
+    private static final int MAGIC = 0x55575347;
+    private static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 32;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int SLOTS_OFFSET = 8;
+    private static final int LIVE_OFFSET = 16;
+    private static final int NEXT_ID_OFFSET = 24;
+
+    private static final int ID = 0;
+    private static final int AMOUNT = 8;
+    private static final int TIME = 16;
+    private static final int CATEGORY = 24;
+    private static final int TYPE = 28;
+    private static final int FLAGS = 29;
+
+    private static final byte REMOVED = 1;
+    private static final long NO_TIME = TransactionVisitor.NO_TIME;
+    private static final int NO_CATEGORY = -1;
+
+    private final Path path;
+    private final CategoryDictionary categories;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /** Записей в файле, включая удаленные */
+    private int slots;
+    private int live;
+    private long nextId;
+    private int capacity;
+
+    /** true если ID строго возрастают по записям (null - еще не проверено) */
+    private Boolean idsAscending;
+
+    private MappedTransactionSegment(Path path, CategoryDictionary categories) throws IOException {
+        this.path = path;
+        this.categories = categories;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            map(INITIAL_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            nextId = 1;
+            writeHeader();
+            return;
+        }
+        map((int) ((size - HEADER_SIZE) / RECORD_SIZE));
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("неизвестный формат сегмента " + path);
+        }
+        slots = (int) buffer.getLong(SLOTS_OFFSET);
+        live = (int) buffer.getLong(LIVE_OFFSET);
+        nextId = buffer.getLong(NEXT_ID_OFFSET);
+        if (slots > capacity || live > slots) {
+            channel.close();
+            throw new IOException("поврежден заголовок сегмента " + path);
+        }
+    }
+
+    /**
+     * Открывает (или создает пустой) сегмент. Читается только заголовок.
+     *
+     * @param path       файл сегмента
+     * @param categories словарь категорий кошелька
+     * @return сегмент
+     * @throws IOException при ошибке открытия или неверном формате
+     */
+    public static MappedTransactionSegment open(Path path, CategoryDictionary categories) throws IOException {
+        return new MappedTransactionSegment(path, categories);
+    }
+
+    /**
+     * Атомарно записывает новый сегмент из транзакций (без удаленных записей)
+     * и открывает его.
+     *
+     * @param path         файл сегмента
+     * @param categories   словарь категорий кошелька
+     * @param transactions транзакции
+     * @return открытый сегмент
+     * @throws IOException при ошибке записи
+     */
+    public static MappedTransactionSegment create(Path path, CategoryDictionary categories,
+            Iterable<Transaction> transactions) throws IOException {
+        int count = 0;
+        long nextId = 1;
+        for (Transaction transaction : transactions) {
+            nextId = Math.max(nextId, transaction.getId() + 1L);
+            count++;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, MAGIC).putInt(4, VERSION)
+                .putLong(SLOTS_OFFSET, count).putLong(LIVE_OFFSET, count).putLong(NEXT_ID_OFFSET, nextId);
+        AtomicFiles.write(path, out -> {
+            out.write(header.array());
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            for (Transaction transaction : transactions) {
+                encode(record, 0, transaction, categories);
+                out.write(record.array());
+            }
+        });
+        return open(path, categories);
+    }
+
+    /**
+     * @return следующий свободный ID (больше всех записанных)
+     */
+    public synchronized long nextId() {
+        return nextId;
+    }
+
+    /**
+     * @return число удаленных записей, занимающих место в файле
+     */
+    public synchronized int removedCount() {
+        return slots - live;
+    }
+
+    /**
+     * @return файл сегмента
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public synchronized int size() {
+        return live;
+    }
+
+    @Override
+    public synchronized void add(Transaction transaction) {
+        if (slots == capacity) {
+            grow();
+        }
+        if (Boolean.TRUE.equals(idsAscending) && slots > 0 && transaction.getId() <= idAt(slots - 1)) {
+            idsAscending = false;
+        }
+        encode(buffer, HEADER_SIZE + slots * RECORD_SIZE, transaction, categories);
+        slots++;
+        live++;
+        nextId = Math.max(nextId, transaction.getId() + 1L);
+        writeHeader();
+    }
+
+    @Override
+    public synchronized boolean removeIf(Predicate<Transaction> filter) {
+        boolean removed = false;
+        for (int slot = 0; slot < slots; slot++) {
+            int offset = HEADER_SIZE + slot * RECORD_SIZE;
+            if (buffer.get(offset + FLAGS) != REMOVED && filter.test(decode(offset))) {
+                buffer.put(offset + FLAGS, REMOVED);
+                live--;
+                removed = true;
+            }
+        }
+        if (removed) {
+            writeHeader();
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized Transaction find(long id) {
+        int slot = slotOf(id);
+        return slot < 0 ? null : decode(HEADER_SIZE + slot * RECORD_SIZE);
+    }
+
+    /**
+     * Удаление по ID: запись находится двоичным поиском и помечается удаленной
+     */
+    @Override
+    public synchronized Transaction removeById(long id) {
+        int slot = slotOf(id);
+        if (slot < 0) {
+            return null;
+        }
+        int offset = HEADER_SIZE + slot * RECORD_SIZE;
+        Transaction transaction = decode(offset);
+        buffer.put(offset + FLAGS, REMOVED);
+        live--;
+        writeHeader();
+        return transaction;
+    }
+
+    /**
+     * Транзакция по номеру: живые записи считаются по флагам, создается
+     * только найденная транзакция
+     */
+    @Override
+    public synchronized Transaction get(int index) {
+        if (index >= 0 && index < live) {
+            int remaining = index;
+            for (int slot = 0; slot < slots; slot++) {
+                int offset = HEADER_SIZE + slot * RECORD_SIZE;
+                if (buffer.get(offset + FLAGS) != REMOVED && remaining-- == 0) {
+                    return decode(offset);
+                }
+            }
+        }
+        throw new IndexOutOfBoundsException(index);
+    }
+
+    /**
+     * Обход по записям сегмента без создания транзакций
+     */
+    @Override
+    public synchronized void visit(TransactionVisitor visitor) {
+        for (int slot = 0; slot < slots; slot++) {
+            int offset = HEADER_SIZE + slot * RECORD_SIZE;
+            if (buffer.get(offset + FLAGS) != REMOVED) {
+                int category = buffer.getInt(offset + CATEGORY);
+                visitor.visit(buffer.getLong(offset + ID), category == NO_CATEGORY ? null : categories.get(category),
+                        typeAt(offset), buffer.getLong(offset + AMOUNT), buffer.getLong(offset + TIME));
+            }
+        }
+    }
+
+    /**
+     * Выборка сравнивает номер категории и время прямо в записях и
+     * упорядочивает подходящие записи по времени; транзакции создаются
+     * только для записей, просмотренных с конца до набора {@code limit}.
+     */
+    @Override
+    public synchronized List<Transaction> select(String category, LocalDateTime from, LocalDateTime to,
+            Predicate<Transaction> filter, int limit) {
+        ArrayDeque<Transaction> result = new ArrayDeque<>();
+        int code = category == null ? NO_CATEGORY : categories.find(category);
+        if (category != null && code < 0) {
+            return new ArrayList<>(result);
+        }
+        boolean bounded = from != null || to != null;
+        // время хранится в микросекундах: начало с долями микросекунды округляется вверх
+        long fromMicros = from == null ? Long.MIN_VALUE
+                : WalletCodec.toMicros(from) + (from.getNano() % 1_000 != 0 ? 1 : 0);
+        long toMicros = to == null ? Long.MAX_VALUE : WalletCodec.toMicros(to);
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < slots; i++) {
+            int offset = HEADER_SIZE + i * RECORD_SIZE;
+            if (buffer.get(offset + FLAGS) == REMOVED
+                    || category != null && buffer.getInt(offset + CATEGORY) != code) {
+                continue;
+            }
+            long time = buffer.getLong(offset + TIME);
+            if (bounded && (time == NO_TIME || time < fromMicros || time > toMicros)) {
+                continue;
+            }
+            offsets.add(offset);
+        }
+        // сортировка устойчива: при равном времени сохраняется порядок добавления
+        offsets.sort(Comparator.comparingLong(offset -> buffer.getLong(offset + TIME)));
+        for (int i = offsets.size() - 1; i >= 0 && (limit <= 0 || result.size() < limit); i--) {
+            Transaction transaction = decode(offsets.get(i));
+            if (filter.test(transaction)) {
+                result.addFirst(transaction);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Удаление категории сравнивает номер категории и код типа в записях
+     */
+    @Override
+    public synchronized boolean removeCategory(String category, TransactionType type) {
+        if (type == null) {
+            return TransactionStore.super.removeCategory(category, type);
+        }
+        int code = categories.find(category);
+        if (code < 0) {
+            return false;
+        }
+        int typeCode = WalletCodec.typeCode(type);
+        boolean removed = false;
+        for (int slot = 0; slot < slots; slot++) {
+            int offset = HEADER_SIZE + slot * RECORD_SIZE;
+            if (buffer.get(offset + FLAGS) != REMOVED && buffer.getInt(offset + CATEGORY) == code
+                    && buffer.get(offset + TYPE) == typeCode) {
+                buffer.put(offset + FLAGS, REMOVED);
+                live--;
+                removed = true;
+            }
+        }
+        if (removed) {
+            writeHeader();
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized void updateAll(Consumer<Transaction> action) {
+        idsAscending = null;
+        for (int slot = 0; slot < slots; slot++) {
+            int offset = HEADER_SIZE + slot * RECORD_SIZE;
+            if (buffer.get(offset + FLAGS) != REMOVED) {
+                Transaction transaction = decode(offset);
+                action.accept(transaction);
+                encode(buffer, offset, transaction, categories);
+                nextId = Math.max(nextId, transaction.getId() + 1L);
+            }
+        }
+        writeHeader();
+    }
+
+    @Override
+    public Iterator<Transaction> iterator() {
+        return new Iterator<>() {
+            private int slot = nextLive(0);
+
+            @Override
+            public boolean hasNext() {
+                return slot >= 0;
+            }
+
+            @Override
+            public Transaction next() {
+                if (slot < 0) {
+                    throw new NoSuchElementException();
+                }
+                Transaction transaction;
+                synchronized (MappedTransactionSegment.this) {
+                    transaction = decode(HEADER_SIZE + slot * RECORD_SIZE);
+                }
+                slot = nextLive(slot + 1);
+                return transaction;
+            }
+        };
+    }
+
+    /**
+     * Сбрасывает измененные страницы сегмента на диск.
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Позиция живой записи с ID: двоичный поиск, если ID возрастают
+     * (проверяется один раз), иначе проход по записям
+     *
+     * @return номер записи или -1
+     */
+    private int slotOf(long id) {
+        if (idsAscending == null) {
+            idsAscending = true;
+            for (int slot = 1; slot < slots && idsAscending; slot++) {
+                idsAscending = idAt(slot) > idAt(slot - 1);
+            }
+        }
+        int found = -1;
+        if (idsAscending) {
+            int low = 0;
+            int high = slots - 1;
+            while (low <= high && found < 0) {
+                int middle = (low + high) >>> 1;
+                long current = idAt(middle);
+                if (current < id) {
+                    low = middle + 1;
+                } else if (current > id) {
+                    high = middle - 1;
+                } else {
+                    found = middle;
+                }
+            }
+        } else {
+            for (int slot = 0; slot < slots && found < 0; slot++) {
+                if (idAt(slot) == id && buffer.get(HEADER_SIZE + slot * RECORD_SIZE + FLAGS) != REMOVED) {
+                    found = slot;
+                }
+            }
+        }
+        return found < 0 || buffer.get(HEADER_SIZE + found * RECORD_SIZE + FLAGS) == REMOVED ? -1 : found;
+    }
+
+    private long idAt(int slot) {
+        return buffer.getLong(HEADER_SIZE + slot * RECORD_SIZE + ID);
+    }
+
+    private synchronized int nextLive(int from) {
+        for (int slot = from; slot < slots; slot++) {
+            if (buffer.get(HEADER_SIZE + slot * RECORD_SIZE + FLAGS) != REMOVED) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void writeHeader() {
+        buffer.putLong(SLOTS_OFFSET, slots);
+        buffer.putLong(LIVE_OFFSET, live);
+        buffer.putLong(NEXT_ID_OFFSET, nextId);
+    }
+
+    private void grow() {
+        long wanted = (long) capacity * 2;
+        if (HEADER_SIZE + wanted * RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Сегмент транзакций переполнен: " + path);
+        }
+        try {
+            map((int) wanted);
+        } catch (IOException e) {
+            throw new IllegalStateException("Ошибка расширения сегмента " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Отображает в память заголовок и записи (файл расширяется при необходимости)
+     */
+    private void map(int records) throws IOException {
+        capacity = Math.max(records, 1);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+    }
+
+    private Transaction decode(int offset) {
+        Transaction transaction = new Transaction();
+        transaction.setId(buffer.getLong(offset + ID));
+        transaction.setAmount(buffer.getLong(offset + AMOUNT));
+        long time = buffer.getLong(offset + TIME);
+        transaction.setTimestamp(time == NO_TIME ? null : WalletCodec.fromMicros(time));
+        int category = buffer.getInt(offset + CATEGORY);
+        transaction.setCategory(category == NO_CATEGORY ? null : categories.get(category));
+        transaction.setTransactionType(typeAt(offset));
+        return transaction;
+    }
+
+    private TransactionType typeAt(int offset) {
+        try {
+            return WalletCodec.fromCode(buffer.get(offset + TYPE));
+        } catch (IOException e) {
+            throw new IllegalStateException("Поврежден сегмент " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static void encode(ByteBuffer target, int offset, Transaction transaction,
+            CategoryDictionary categories) {
+        LocalDateTime timestamp = transaction.getTimestamp();
+        target.putLong(offset + ID, transaction.getId());
+        target.putLong(offset + AMOUNT, transaction.getAmount());
+        target.putLong(offset + TIME, timestamp == null ? NO_TIME : WalletCodec.toMicros(timestamp));
+        target.putInt(offset + CATEGORY,
+                transaction.getCategory() == null ? NO_CATEGORY : categories.codeOf(transaction.getCategory()));
+        target.put(offset + TYPE, (byte) WalletCodec.typeCode(transaction.getTransactionType()));
+        target.put(offset + FLAGS, (byte) 0);
+    }
+}
@@ -0,0 +1,354 @@
+package org.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.model.User;
+import org.model.Wallet;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Хранилище с транзакциями кошельков в отображенных в память сегментах.
+ *
+ *        На каждого пользователя в каталоге три файла: данные пользователя
+ *        (*.user, JSON без транзакций), сегмент транзакций (*.seg, см.
+ *        {@link MappedTransactionSegment}) и словарь категорий (*.cat).
+ *        Загрузка пользователя читает только его данные и заголовок
+ *        сегмента, кошелек работает с транзакциями прямо в сегменте, поэтому
+ *        куча не растет с длиной истории. Изменения кошелька уже записаны
+ *        в сегмент, журнал не нужен: фиксация сбрасывает сегмент на диск.
+ *        При первом запуске данные переносятся из JSON файла пользователей.
+ */
+public class MappedUserStorage implements UserStorage {
+
+    private static final String USER_SUFFIX = ".user";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CATEGORIES_SUFFIX = ".cat";
+
+    private final ObjectMapper objectMapper = JsonFileStorage.createObjectMapper();
+    private final Path directory;
+
+    /** Открытые сегменты: нормализованное имя -> сегмент */
+    private final Map<String, MappedTransactionSegment> segments = new ConcurrentHashMap<>();
+
+    /** Блокировки файлов пользователей */
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory  каталог с файлами пользователей
+     * @param legacyFile JSON файл пользователей для переноса (может быть null)
+     */
+    public MappedUserStorage(Path directory, Path legacyFile) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            System.err.println("Ошибка создания каталога пользователей: " + e.getMessage());
+        }
+        if (legacyFile != null && userFiles().isEmpty()) {
+            migrate(legacyFile);
+        }
+    }
+
+    /**
+     * Каталог сегментов рядом с JSON файлом пользователей:
+     * data/users.json -> data/users-mapped
+     *
+     * @param file путь к JSON файлу пользователей
+     * @return каталог
+     */
+    static Path directoryFor(String file) {
+        return Paths.get((file.endsWith(".json") ? file.substring(0, file.length() - ".json".length()) : file)
+                + "-mapped");
+    }
+
+    @Override
+    public List<User> loadAll() {
+        List<User> users = new ArrayList<>();
+        for (Path file : userFiles()) {
+            UserMeta meta = readMeta(file);
+            User user = meta == null ? null : load(meta.username);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Читает данные пользователя; сегмент транзакций (только заголовок)
+     * открывается при первом обращении к кошельку.
+     */
+    @Override
+    public User load(String username) {
+        String key = UserStorage.normalize(username);
+        synchronized (lockFor(key)) {
+            UserMeta meta = readMeta(directory.resolve(baseName(key) + USER_SUFFIX));
+            if (meta == null) {
+                return null;
+            }
+            User user = new User(meta.username, meta.password);
+            user.setSalt(meta.salt);
+            user.setWalletLoader(() -> openWallet(key, meta));
+            return user;
+        }
+    }
+
+    /**
+     * Кошелек поверх сегмента транзакций пользователя
+     */
+    private Wallet openWallet(String key, UserMeta meta) {
+        synchronized (lockFor(key)) {
+            MappedTransactionSegment segment;
+            try {
+                segment = segmentFor(key);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Ошибка открытия сегмента пользователя " + meta.username, e);
+            }
+            Wallet wallet = new Wallet();
+            wallet.setTransactionStore(segment);
+            wallet.setLastTransactionId(Math.max(meta.lastTransactionId, segment.nextId()));
+            return wallet;
+        }
+    }
+
+    @Override
+    public boolean saveAll(Collection<User> users) {
+        boolean success = true;
+        Set<String> keys = new HashSet<>();
+        for (User user : users) {
+            keys.add(UserStorage.normalize(user.getUsername()));
+            success &= save(user);
+        }
+        for (Path file : userFiles()) {
+            UserMeta meta = readMeta(file);
+            if (meta != null && !keys.contains(UserStorage.normalize(meta.username))) {
+                success &= delete(meta.username);
+            }
+        }
+        return success;
+    }
+
+    @Override
+    public boolean isPartitioned() {
+        return true;
+    }
+
+    /**
+     * Записывает данные пользователя. Если кошелек еще не в сегменте этого
+     * хранилища (новый пользователь, импорт) - сегмент перестраивается
+     * из транзакций кошелька, и кошелек переключается на него.
+     * Блокировки берутся в том же порядке, что и при компактификации:
+     * кошелек, затем файлы пользователя.
+     */
+    @Override
+    public boolean save(User user) {
+        String key = UserStorage.normalize(user.getUsername());
+        Wallet wallet = user.getWallet();
+        synchronized (wallet) {
+            synchronized (lockFor(key)) {
+                MappedTransactionSegment segment = segments.get(key);
+                try {
+                    if (segment == null || wallet.getTransactionStore() != segment) {
+                        rebuild(key, wallet);
+                    } else {
+                        segment.force();
+                    }
+                    UserMeta meta = new UserMeta();
+                    meta.username = user.getUsername();
+                    meta.password = user.getPassword();
+                    meta.salt = user.getSalt();
+                    meta.lastTransactionId = wallet.getLastTransactionId();
+                    AtomicFiles.write(directory.resolve(baseName(key) + USER_SUFFIX),
+                            objectMapper.writeValueAsBytes(meta));
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Ошибка записи пользователя " + user.getUsername() + ": " + e.getMessage());
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean delete(String username) {
+        String key = UserStorage.normalize(username);
+        synchronized (lockFor(key)) {
+            try {
+                MappedTransactionSegment segment = segments.remove(key);
+                if (segment != null) {
+                    segment.close();
+                }
+                Files.deleteIfExists(directory.resolve(baseName(key) + USER_SUFFIX));
+                Files.deleteIfExists(directory.resolve(baseName(key) + SEGMENT_SUFFIX));
+                Files.deleteIfExists(directory.resolve(baseName(key) + CATEGORIES_SUFFIX));
+            } catch (IOException e) {
+                System.err.println("Ошибка удаления пользователя " + username + ": " + e.getMessage());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Кошелек работает прямо с сегментом, копия для записи не нужна.
+     */
+    @Override
+    public User snapshotOf(User user) {
+        return user;
+    }
+
+    /**
+     * Перестраивает сегмент без удаленных записей. Изменения этого кошелька
+     * ждут перестроения, остальные кошельки не затрагиваются.
+     */
+    @Override
+    public void reclaim(User user) {
+        String key = UserStorage.normalize(user.getUsername());
+        Wallet wallet = user.getWallet();
+        synchronized (wallet) {
+            synchronized (lockFor(key)) {
+                MappedTransactionSegment segment = segments.get(key);
+                if (segment == null || wallet.getTransactionStore() != segment || segment.removedCount() == 0) {
+                    return;
+                }
+                try {
+                    rebuild(key, wallet);
+                } catch (IOException e) {
+                    System.err.println("Ошибка перестроения сегмента пользователя " + user.getUsername() + ": "
+                            + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Изменение уже записано в сегмент кошелька - сбрасываем его на диск.
+     */
+    @Override
+    public void append(User user, JournalRecord record) throws IOException {
+        String key = UserStorage.normalize(user.getUsername());
+        MappedTransactionSegment segment = segments.get(key);
+        if (segment != null && user.getWallet().getTransactionStore() == segment) {
+            segment.force();
+        } else if (!save(user)) {
+            throw new IOException("не удалось записать кошелек пользователя " + user.getUsername());
+        }
+    }
+
+    /**
+     * Закрывает все открытые сегменты.
+     */
+    public void close() {
+        for (MappedTransactionSegment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                System.err.println("Ошибка закрытия сегмента " + segment.getPath() + ": " + e.getMessage());
+            }
+        }
+        segments.clear();
+    }
+
+    /**
+     * Записывает новый сегмент из транзакций кошелька и переключает кошелек на него
+     */
+    private void rebuild(String key, Wallet wallet) throws IOException {
+        MappedTransactionSegment segment = segments.get(key);
+        MappedTransactionSegment rebuilt = MappedTransactionSegment.create(
+                directory.resolve(baseName(key) + SEGMENT_SUFFIX),
+                new CategoryDictionary(directory.resolve(baseName(key) + CATEGORIES_SUFFIX)),
+                wallet.getTransactionStore());
+        if (segment != null) {
+            segment.close();
+        }
+        segments.put(key, rebuilt);
+        wallet.setTransactionStore(rebuilt);
+    }
+
+    private MappedTransactionSegment segmentFor(String key) throws IOException {
+        MappedTransactionSegment segment = segments.get(key);
+        if (segment == null) {
+            segment = MappedTransactionSegment.open(directory.resolve(baseName(key) + SEGMENT_SUFFIX),
+                    new CategoryDictionary(directory.resolve(baseName(key) + CATEGORIES_SUFFIX)));
+            segments.put(key, segment);
+        }
+        return segment;
+    }
+
+    private static String baseName(String key) {
+        return ShardedFileStorage.encodeName(key);
+    }
+
+    private Object lockFor(String key) {
+        return locks.computeIfAbsent(key, k -> new Object());
+    }
+
+    private List<Path> userFiles() {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + USER_SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения каталога пользователей: " + e.getMessage());
+        }
+        return files;
+    }
+
+    private UserMeta readMeta(Path file) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(file.toFile(), UserMeta.class);
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения файла пользователя " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Переносит пользователей из JSON файла (вместе с его журналом).
+     * Прежний файл переименовывается в *.migrated.
+     */
+    private void migrate(Path legacyFile) {
+        try {
+            if (!Files.exists(legacyFile) || Files.size(legacyFile) == 0) {
+                return;
+            }
+            List<User> users = new JsonFileStorage(legacyFile.toString()).loadAll();
+            if (users.isEmpty() || !saveAll(users)) {
+                return;
+            }
+            Files.move(legacyFile, Paths.get(legacyFile + ".migrated"));
+            Files.deleteIfExists(Paths.get(legacyFile + ".journal"));
+            Files.deleteIfExists(Paths.get(legacyFile + ".idx"));
+            System.out.println("Пользователи перенесены в каталог " + directory + ": " + users.size());
+        } catch (IOException e) {
+            System.err.println("Ошибка переноса пользователей: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Данные пользователя без транзакций
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class UserMeta {
+        public String username;
+        public String password;
+        public String salt;
+        public long lastTransactionId = 1;
+    }
+}
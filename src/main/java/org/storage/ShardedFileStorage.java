@@ -0,0 +1,374 @@
+package org.storage;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.model.User;
+import org.model.Wallet;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Хранилище с отдельным файлом на каждого пользователя.
+ *
+ *        Файл пользователя адресуется нормализованным именем, у каждого файла
+ *        свой журнал изменений. Запись затрагивает только данные одного
+ *        пользователя, поэтому разные пользователи пишутся параллельно.
+ *        Каталог содержит индекс index.idx (имя -> файл): у файлов
+ *        пользователей другое расширение, поэтому индекс не совпадает с
+ *        файлом пользователя ни при каком имени. При первом запуске
+ *        данные переносятся из прежнего единого файла пользователей.
+ */
+public class ShardedFileStorage implements UserStorage {
+
+    private static final String INDEX_FILE = "index.idx";
+    /** Индекс прежнего формата: совпадал с файлом пользователя index */
+    private static final String LEGACY_INDEX_FILE = "index.json";
+    private static final String SHARD_SUFFIX = ".json";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private final ObjectMapper objectMapper = JsonFileStorage.createObjectMapper();
+    private final Path directory;
+
+    /** Индекс каталога: нормализованное имя -> имя файла пользователя */
+    private final Map<String, String> index = new LinkedHashMap<>();
+
+    /** Блокировки файлов пользователей: запись одного не ждет другого */
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     * @param directory  каталог с файлами пользователей
+     * @param legacyFile прежний единый файл пользователей для переноса (может быть null)
+     */
+    public ShardedFileStorage(Path directory, Path legacyFile) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            System.err.println("Ошибка создания каталога пользователей: " + e.getMessage());
+        }
+        loadIndex();
+        if (index.isEmpty() && legacyFile != null) {
+            migrate(legacyFile);
+        }
+    }
+
+    /**
+     * Каталог для файлов пользователей рядом с единым файлом:
+     * data/users.json -> data/users
+     *
+     * @param file путь к единому файлу пользователей
+     * @return каталог
+     */
+    static Path directoryFor(String file) {
+        return Paths.get(file.endsWith(SHARD_SUFFIX)
+                ? file.substring(0, file.length() - SHARD_SUFFIX.length())
+                : file + ".d");
+    }
+
+    @Override
+    public List<User> loadAll() {
+        List<User> users = new ArrayList<>();
+        for (Map.Entry<String, String> entry : indexSnapshot().entrySet()) {
+            User user = readShard(directory.resolve(entry.getValue()));
+            if (user == null) {
+                continue;
+            }
+            for (JournalRecord record : journalFor(entry.getKey()).readAll()) {
+                record.replay(user.getWallet());
+            }
+            users.add(user);
+        }
+        return users;
+    }
+
+    /**
+     * Все пользователи каталога без кошельков (см. {@link #load(String)})
+     */
+    @Override
+    public List<User> loadAllHeaders() {
+        List<User> users = new ArrayList<>();
+        for (String key : indexSnapshot().keySet()) {
+            User user = load(key);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Поиск пользователя по индексу каталога. Устаревшая запись индекса
+     * исправляется на месте: имя файла однозначно вычисляется из имени.
+     */
+    @Override
+    public User load(String username) {
+        String key = UserStorage.normalize(username);
+        String fileName = shardName(key);
+        boolean exists = Files.exists(directory.resolve(fileName));
+        synchronized (index) {
+            boolean indexed = index.containsKey(key);
+            if (exists != indexed) {
+                if (exists) {
+                    index.put(key, fileName);
+                } else {
+                    index.remove(key);
+                }
+                writeIndex();
+            }
+        }
+        if (!exists) {
+            return null;
+        }
+        Path shard = directory.resolve(fileName);
+        try {
+            User user = JsonFileStorage.readHeader(objectMapper, Files.readAllBytes(shard));
+            user.setWalletLoader(() -> loadWallet(key, shard));
+            return user;
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения файла пользователя " + shard + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Читает кошелек пользователя из текущего файла и применяет его журнал
+     */
+    private Wallet loadWallet(String key, Path shard) {
+        synchronized (lockFor(key)) { // файл и журнал - из одной записи
+            User user = readShard(shard);
+            if (user == null) {
+                throw new IllegalStateException("Не удалось прочитать файл пользователя " + shard);
+            }
+            for (JournalRecord record : journalFor(key).readAll()) {
+                record.replay(user.getWallet());
+            }
+            return user.getWallet();
+        }
+    }
+
+    @Override
+    public boolean saveAll(Collection<User> users) {
+        boolean success = true;
+        Set<String> keys = new HashSet<>();
+        for (User user : users) {
+            keys.add(UserStorage.normalize(user.getUsername()));
+            success &= save(user);
+        }
+        for (String key : indexSnapshot().keySet()) {
+            if (!keys.contains(key)) {
+                success &= delete(key);
+            }
+        }
+        return success;
+    }
+
+    @Override
+    public boolean isPartitioned() {
+        return true;
+    }
+
+    @Override
+    public boolean save(User user) {
+        String key = UserStorage.normalize(user.getUsername());
+        String fileName = shardName(key);
+        synchronized (lockFor(key)) {
+            try {
+                AtomicFiles.write(directory.resolve(fileName), objectMapper.writeValueAsBytes(user));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ошибка записи пользователя " + user.getUsername() + ": " + e.getMessage());
+                return false;
+            }
+            try {
+                long version = user.getWallet().getVersion(); // остальные изменения уже в снимке
+                journalFor(key).retain(record -> record.isNewerThan(version));
+            } catch (IOException e) {
+                System.err.println("Ошибка очистки журнала: " + e.getMessage());
+            }
+        }
+        synchronized (index) {
+            if (!fileName.equals(index.put(key, fileName))) {
+                writeIndex();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean delete(String username) {
+        String key = UserStorage.normalize(username);
+        synchronized (lockFor(key)) {
+            try {
+                Files.deleteIfExists(directory.resolve(shardName(key)));
+                journalFor(key).truncate();
+            } catch (IOException e) {
+                System.err.println("Ошибка удаления пользователя " + username + ": " + e.getMessage());
+                return false;
+            }
+        }
+        synchronized (index) {
+            if (index.remove(key) != null) {
+                writeIndex();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void append(User user, JournalRecord record) throws IOException {
+        String key = UserStorage.normalize(user.getUsername());
+        record.setUsername(user.getUsername());
+        synchronized (lockFor(key)) {
+            journalFor(key).append(record);
+        }
+    }
+
+    /**
+     * Имя файла пользователя: нормализованное имя, безопасное для файловой системы
+     */
+    private static String shardName(String key) {
+        return encodeName(key) + SHARD_SUFFIX;
+    }
+
+    /**
+     * Имя пользователя, безопасное для файловой системы
+     *
+     * @param key нормализованное имя
+     * @return закодированное имя (без расширения)
+     */
+    static String encodeName(String key) {
+        return URLEncoder.encode(key, StandardCharsets.UTF_8).replace("*", "%2A");
+    }
+
+    private WalletJournal journalFor(String key) {
+        return new WalletJournal(directory.resolve(shardName(key) + JOURNAL_SUFFIX));
+    }
+
+    private Object lockFor(String key) {
+        return locks.computeIfAbsent(key, k -> new Object());
+    }
+
+    private Map<String, String> indexSnapshot() {
+        synchronized (index) {
+            return new LinkedHashMap<>(index);
+        }
+    }
+
+    private User readShard(Path shard) {
+        if (!Files.exists(shard)) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(shard.toFile(), User.class);
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения файла пользователя " + shard + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Читает индекс каталога. Если индекса нет - восстанавливает его по файлам.
+     */
+    private void loadIndex() {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (Files.exists(indexFile)) {
+            try {
+                index.putAll(readIndexFile(indexFile));
+                return;
+            } catch (IOException e) {
+                System.err.println("Индекс пользователей поврежден, восстанавливаем: " + e.getMessage());
+            }
+        }
+        if (loadLegacyIndex()) {
+            return;
+        }
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(directory, "*" + SHARD_SUFFIX)) {
+            for (Path shard : shards) {
+                User user = readShard(shard);
+                if (user != null) {
+                    index.put(UserStorage.normalize(user.getUsername()), shard.getFileName().toString());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения каталога пользователей: " + e.getMessage());
+        }
+        if (!index.isEmpty()) {
+            writeIndex();
+        }
+    }
+
+    /**
+     * Переносит индекс прежнего формата (index.json). Если файл - не индекс,
+     * а файл пользователя index, он остается на месте.
+     *
+     * @return true если индекс перенесен
+     */
+    private boolean loadLegacyIndex() {
+        Path legacyIndex = directory.resolve(LEGACY_INDEX_FILE);
+        if (!Files.exists(legacyIndex)) {
+            return false;
+        }
+        try {
+            index.putAll(readIndexFile(legacyIndex));
+        } catch (IOException e) {
+            return false;
+        }
+        writeIndex();
+        try {
+            Files.delete(legacyIndex);
+        } catch (IOException e) {
+            System.err.println("Ошибка удаления прежнего индекса пользователей: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private Map<String, String> readIndexFile(Path file) throws IOException {
+        return objectMapper.readValue(file.toFile(), new TypeReference<LinkedHashMap<String, String>>() {
+        });
+    }
+
+    private void writeIndex() {
+        try {
+            AtomicFiles.write(directory.resolve(INDEX_FILE), objectMapper.writeValueAsBytes(index));
+        } catch (IOException e) {
+            System.err.println("Ошибка записи индекса пользователей: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Переносит пользователей из единого файла (вместе с его журналом и индексом).
+     * Прежний файл переименовывается в *.migrated.
+     */
+    private void migrate(Path legacyFile) {
+        try {
+            if (!Files.exists(legacyFile) || Files.size(legacyFile) == 0) {
+                return;
+            }
+            JsonFileStorage legacy = new JsonFileStorage(legacyFile.toString());
+            List<User> users = legacy.loadAll();
+            if (users.isEmpty() || !saveAll(users)) {
+                return;
+            }
+            Files.move(legacyFile, Paths.get(legacyFile + ".migrated"));
+            Files.deleteIfExists(Paths.get(legacyFile + JOURNAL_SUFFIX));
+            Files.deleteIfExists(Paths.get(legacyFile + ".idx"));
+            System.out.println("Пользователи перенесены в каталог " + directory + ": " + users.size());
+        } catch (IOException e) {
+            System.err.println("Ошибка переноса пользователей: " + e.getMessage());
+        }
+    }
+}
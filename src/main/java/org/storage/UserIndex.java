@@ -0,0 +1,142 @@
+package org.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Постоянный индекс пользователей единого файла.
+ *
+ *        Сопоставляет нормализованное имя пользователя с положением его
+ *        объекта в файле (смещение и длина в байтах), поэтому вход читает
+ *        только байты одного пользователя. Вместе с индексом хранятся длина
+ *        и время изменения файла данных: если файл менялся без индекса,
+ *        индекс считается устаревшим и перестраивается.
+ */
+public class UserIndex {
+
+    private final Path path;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /** Нормализованное имя -> [смещение, длина] */
+    private final Map<String, long[]> entries = new HashMap<>();
+
+    /** Отметка файла данных, которому соответствует индекс */
+    private long dataLength = -1;
+    private long dataModified = -1;
+
+    /**
+     * @param path путь к файлу индекса
+     */
+    public UserIndex(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @param key нормализованное имя
+     * @return [смещение, длина] или null
+     */
+    public long[] get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * @return нормализованные имена в порядке положения объектов в файле
+     */
+    public List<String> keys() {
+        List<String> keys = new ArrayList<>(entries.keySet());
+        keys.sort(Comparator.comparingLong(key -> entries.get(key)[0]));
+        return keys;
+    }
+
+    /**
+     * @param key    нормализованное имя
+     * @param offset смещение объекта пользователя в файле
+     * @param length длина объекта в байтах
+     */
+    public void put(String key, long offset, long length) {
+        entries.put(key, new long[] { offset, length });
+    }
+
+    /**
+     * Очищает индекс перед перестроением.
+     */
+    public void clear() {
+        entries.clear();
+        dataLength = -1;
+        dataModified = -1;
+    }
+
+    /**
+     * @param data файл данных
+     * @return true если индекс в памяти соответствует файлу данных
+     */
+    public boolean isFreshFor(File data) {
+        return dataLength == data.length() && dataModified == data.lastModified();
+    }
+
+    /**
+     * Загружает индекс с диска.
+     *
+     * @param data файл данных, который описывает индекс
+     * @return true если индекс найден и соответствует файлу данных
+     */
+    public boolean load(File data) {
+        clear();
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try {
+            Snapshot snapshot = objectMapper.readValue(path.toFile(), Snapshot.class);
+            if (snapshot.dataLength != data.length() || snapshot.dataModified != data.lastModified()
+                    || snapshot.entries == null) {
+                return false;
+            }
+            entries.putAll(snapshot.entries);
+            dataLength = snapshot.dataLength;
+            dataModified = snapshot.dataModified;
+            return true;
+        } catch (IOException e) {
+            System.err.println("Индекс пользователей поврежден: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Записывает индекс на диск вместе с отметкой файла данных.
+     *
+     * @param data файл данных, который описывает индекс
+     */
+    public void save(File data) {
+        dataLength = data.length();
+        dataModified = data.lastModified();
+        Snapshot snapshot = new Snapshot();
+        snapshot.dataLength = dataLength;
+        snapshot.dataModified = dataModified;
+        snapshot.entries = entries;
+        try {
+            AtomicFiles.write(path, objectMapper.writeValueAsBytes(snapshot));
+        } catch (IOException e) {
+            System.err.println("Ошибка записи индекса пользователей: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Формат файла индекса
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    static class Snapshot {
+        public long dataLength;
+        public long dataModified;
+        public Map<String, long[]> entries = new HashMap<>();
+    }
+}
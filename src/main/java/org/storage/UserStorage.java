@@ -0,0 +1,166 @@
+package org.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.model.User;
+
+/**
+ * Хранилище пользователей и их кошельков.
+ *
+ *        Хранилище отвечает за полные снимки пользователей и журнал
+ *        изменений кошельков поверх них. Загрузка возвращает пользователей
+ *        с уже примененным журналом.
+ */
+public interface UserStorage {
+
+    /**
+     * Загружает всех пользователей с примененным журналом.
+     *
+     * @return список пользователей
+     */
+    List<User> loadAll();
+
+    /**
+     * Загружает всех пользователей без кошельков: кошелек читается (и журнал
+     * применяется) при первом обращении к нему. По умолчанию пользователи
+     * загружаются полностью.
+     *
+     * @return список пользователей
+     */
+    default List<User> loadAllHeaders() {
+        return loadAll();
+    }
+
+    /**
+     * Загружает одного пользователя с примененным журналом.
+     *
+     * @param username имя пользователя (без учета регистра)
+     * @return пользователь или null, если не найден
+     */
+    default User load(String username) {
+        String key = normalize(username);
+        return loadAll().stream()
+                .filter(user -> normalize(user.getUsername()).equals(key))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Сохраняет полный снимок всех пользователей и убирает из журнала
+     * изменения, уже содержащиеся в снимке.
+     *
+     * @param users пользователи
+     * @return true если запись успешна
+     */
+    boolean saveAll(Collection<User> users);
+
+    /**
+     * Сохраняет полный снимок после изменений части пользователей.
+     * Пользователей без несохраненных изменений (см. {@link User#isDirty()})
+     * хранилище может перенести из прежнего снимка, не сериализуя заново.
+     * По умолчанию записываются все пользователи.
+     *
+     * @param users пользователи (копии)
+     * @return true если запись успешна
+     */
+    default boolean saveChanged(Collection<User> users) {
+        return saveAll(users);
+    }
+
+    /**
+     * @return true если пользователей можно сохранять и удалять по отдельности
+     */
+    default boolean isPartitioned() {
+        return false;
+    }
+
+    /**
+     * Сохраняет снимок одного пользователя. Разбитые хранилища пишут только
+     * его, остальные переписывают общий снимок.
+     *
+     * @param user пользователь
+     * @return true если запись успешна
+     */
+    boolean save(User user);
+
+    /**
+     * Удаляет одного пользователя. Разбитые хранилища удаляют только его,
+     * остальные переписывают общий снимок.
+     *
+     * @param username имя пользователя
+     * @return true если удаление успешно
+     */
+    boolean delete(String username);
+
+    /**
+     * Копия пользователя для записи снимка вне блокировок сервиса:
+     * изменения кошелька во время записи не затрагивают копию.
+     *
+     * @param user пользователь
+     * @return копия (или сам пользователь, если хранилище не сериализует его)
+     */
+    default User snapshotOf(User user) {
+        return user.copy();
+    }
+
+    /**
+     * Освобождает место, занятое удаленными транзакциями пользователя
+     * (при компактификации). По умолчанию ничего не делает.
+     *
+     * @param user пользователь
+     */
+    default void reclaim(User user) {
+    }
+
+    /**
+     * Дописывает изменение кошелька пользователя в журнал.
+     *
+     * @param user   владелец кошелька
+     * @param record запись об изменении
+     * @throws IOException при ошибке записи
+     */
+    void append(User user, JournalRecord record) throws IOException;
+
+    /**
+     * Приводит имя пользователя к ключу хранилища (без учета регистра).
+     *
+     * @param username имя пользователя
+     * @return нормализованное имя
+     */
+    static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Создает хранилище по настройке user.storage:
+     * json - один файл, sharded - файл на пользователя в каталоге рядом с файлом,
+     * binary - двоичный файл рядом с файлом, mapped - транзакции в отображенных
+     * в память сегментах, memory - только в памяти.
+     *
+     * @param file путь к файлу пользователей
+     * @return хранилище
+     */
+    static UserStorage fromConfig(String file) {
+        String type = Config.get("user.storage", "json").trim().toLowerCase(Locale.ROOT);
+        switch (type) {
+            case "sharded":
+                return new ShardedFileStorage(ShardedFileStorage.directoryFor(file), Paths.get(file));
+            case "binary":
+                return new BinaryUserStorage(BinaryUserStorage.fileFor(file), Paths.get(file));
+            case "mapped":
+                return new MappedUserStorage(MappedUserStorage.directoryFor(file), Paths.get(file));
+            case "memory":
+                return new InMemoryUserStorage();
+            case "json":
+                return new JsonFileStorage(file);
+            default:
+                System.err.println("Неизвестное хранилище " + type + ", используется json");
+                return new JsonFileStorage(file);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.model.Transaction;
+import org.model.TransactionStore;
+import org.model.TransactionType;
+import org.model.TransactionVisitor;
+import org.model.Wallet;
+
+/**
+ * Компактный двоичный формат кошелька.
+ *
+ *        Категории кошелька записываются один раз в словарь, транзакции
+ *        ссылаются на них номером. ID, суммы и время пишутся varint-ами
+ *        (ID и время - разностью с предыдущей транзакцией), тип транзакции
+ *        (или признак его отсутствия) и признак наличия времени занимают
+ *        один байт. Время хранится
+ *        микросекундами от эпохи (UTC).
+ */
+public final class WalletCodec {
+
+    /** Коды типов транзакций в файле (не зависят от порядка в enum) */
+    private static final TransactionType[] TYPES = {
+            TransactionType.INCOME, TransactionType.OUTCOME_PLANNED, TransactionType.OUTCOME_SPENT };
+
+    private static final int TYPE_MASK = 0x0F;
+    /** Код транзакции без типа (например, из прежнего файла пользователей) */
+    static final int NO_TYPE = TYPE_MASK;
+    private static final int HAS_TIMESTAMP = 0x10;
+
+    private WalletCodec() {
+    }
+
+    /**
+     * Записывает кошелек.
+     *
+     * @param out    поток
+     * @param wallet кошелек
+     * @throws IOException при ошибке записи
+     */
+    public static void write(DataOutput out, Wallet wallet) throws IOException {
+        TransactionStore transactions = wallet.getTransactionStore();
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> categories = new ArrayList<>();
+        transactions.visit((id, category, type, amount, micros) -> {
+            if (category != null && !dictionary.containsKey(category)) {
+                dictionary.put(category, categories.size() + 1); // 0 - категории нет
+                categories.add(category);
+            }
+        });
+
+        writeVarLong(out, wallet.getLastTransactionId());
+        writeVarLong(out, categories.size());
+        for (String category : categories) {
+            out.writeUTF(category);
+        }
+        writeVarLong(out, transactions.size());
+        long[] previous = { 0, 0 }; // ID и время предыдущей транзакции
+        try {
+            transactions.visit((id, category, type, amount, micros) -> {
+                try {
+                    boolean timed = micros != TransactionVisitor.NO_TIME;
+                    out.writeByte(typeCode(type) | (timed ? HAS_TIMESTAMP : 0));
+                    writeVarLong(out, zigZag(id - previous[0]));
+                    previous[0] = id;
+                    writeVarLong(out, category == null ? 0 : dictionary.get(category));
+                    writeVarLong(out, zigZag(amount));
+                    if (timed) {
+                        writeVarLong(out, zigZag(micros - previous[1]));
+                        previous[1] = micros;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Читает кошелек.
+     *
+     * @param in поток
+     * @return кошелек
+     * @throws IOException при ошибке чтения или неверных данных
+     */
+    public static Wallet read(DataInput in) throws IOException {
+        long lastTransactionId = readVarLong(in);
+        int dictionarySize = (int) readVarLong(in);
+        String[] categories = new String[dictionarySize + 1];
+        for (int i = 1; i <= dictionarySize; i++) {
+            categories[i] = in.readUTF();
+        }
+        int size = (int) readVarLong(in);
+        List<Transaction> transactions = new ArrayList<>(size);
+        long previousId = 0;
+        long previousTime = 0;
+        for (int i = 0; i < size; i++) {
+            int header = in.readUnsignedByte();
+            Transaction transaction = new Transaction();
+            transaction.setTransactionType(fromCode(header & TYPE_MASK));
+            previousId += unZigZag(readVarLong(in));
+            transaction.setId(previousId);
+            int category = (int) readVarLong(in);
+            if (category > dictionarySize) {
+                throw new IOException("неверный номер категории " + category);
+            }
+            transaction.setCategory(categories[category]);
+            transaction.setAmount(unZigZag(readVarLong(in)));
+            if ((header & HAS_TIMESTAMP) != 0) {
+                previousTime += unZigZag(readVarLong(in));
+                transaction.setTimestamp(fromMicros(previousTime));
+            }
+            transactions.add(transaction);
+        }
+        Wallet wallet = new Wallet(transactions);
+        wallet.setLastTransactionId(lastTransactionId);
+        return wallet;
+    }
+
+    /**
+     * Записывает неотрицательное число по 7 бит в байте (varint).
+     */
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("слишком длинное число varint");
+    }
+
+    /** Знаковое число -> неотрицательное (малые по модулю - короткие) */
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int typeCode(TransactionType type) {
+        if (type == null) {
+            return NO_TYPE;
+        }
+        for (int i = 0; i < TYPES.length; i++) {
+            if (TYPES[i] == type) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Неизвестный тип транзакции: " + type);
+    }
+
+    static TransactionType fromCode(int code) throws IOException {
+        if (code == NO_TYPE) {
+            return null;
+        }
+        if (code < 0 || code >= TYPES.length) {
+            throw new IOException("неизвестный код типа транзакции " + code);
+        }
+        return TYPES[code];
+    }
+
+    static long toMicros(LocalDateTime timestamp) {
+        return timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + timestamp.getNano() / 1_000;
+    }
+
+    static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+}
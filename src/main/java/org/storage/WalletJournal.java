@@ -0,0 +1,279 @@
+package org.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Журнал изменений кошельков (write-ahead log).
+ *
+ *        Каждое изменение дописывается в конец файла одной строкой JSON и
+ *        сразу сбрасывается на диск, поэтому стоимость записи зависит от
+ *        размера изменения, а не от размера всей базы пользователей.
+ *        Положения записей запоминаются по пользователям: записи одного
+ *        пользователя читаются без разбора остального журнала, а новые
+ *        строки, дописанные в файл, разбираются один раз.
+ */
+public class WalletJournal {
+
+    /** Версия кошелька в снимке, при которой сохраняются все записи пользователя */
+    public static final long ALL_RECORDS = Long.MIN_VALUE;
+
+    private final Path path;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /** Нормализованное имя -> [смещение, длина] строк его записей */
+    private final Map<String, List<long[]>> positions = new HashMap<>();
+
+    /** Сколько байт файла уже разобрано в {@link #positions} */
+    private long indexed;
+
+    /** Файл, для которого запомнены положения (меняется при атомарной замене) */
+    private Object indexedFile;
+
+    /** Найдена поврежденная строка: остаток журнала не читается */
+    private boolean damaged;
+
+    /**
+     * @param path путь к файлу журнала
+     */
+    public WalletJournal(Path path) {
+        this.path = path;
+        objectMapper.registerModule(new JavaTimeModule());
+    }
+
+    /**
+     * Дописывает запись в журнал и выполняет fsync.
+     *
+     * @param record запись журнала
+     * @throws IOException при ошибке записи
+     */
+    public synchronized void append(JournalRecord record) throws IOException {
+        byte[] line = (objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+        long offset;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        if (offset == indexed && !damaged && Objects.equals(indexedFile, fileKey())) {
+            indexed += line.length; // остальные строки уже разобраны
+            remember(record, offset, line.length);
+        }
+    }
+
+    /**
+     * Читает записи одного пользователя по порядку. Разбираются только
+     * его строки и строки, дописанные после прошлого чтения.
+     *
+     * @param username имя пользователя (без учета регистра)
+     * @return список записей
+     */
+    public synchronized List<JournalRecord> readFor(String username) {
+        List<JournalRecord> records = new ArrayList<>();
+        try {
+            indexNewRecords();
+            List<long[]> lines = positions.get(UserStorage.normalize(username));
+            if (lines == null) {
+                return records;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                for (long[] line : lines) {
+                    ByteBuffer buffer = ByteBuffer.allocate((int) line[1]);
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, line[0] + buffer.position()) < 0) {
+                            throw new IOException("журнал укорочен");
+                        }
+                    }
+                    records.add(objectMapper.readValue(buffer.array(), JournalRecord.class));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения журнала: " + e.getMessage());
+            forget();
+        }
+        return records;
+    }
+
+    /**
+     * Запоминает положения строк, дописанных после прошлого разбора.
+     * Если файл заменен или укорочен, положения собираются заново.
+     */
+    private void indexNewRecords() throws IOException {
+        if (!Files.exists(path)) {
+            forget();
+            return;
+        }
+        Object file = fileKey();
+        if (!Objects.equals(indexedFile, file) || Files.size(path) < indexed) {
+            forget();
+            indexedFile = file;
+        }
+        if (damaged || Files.size(path) == indexed) {
+            return;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            in.skipNBytes(indexed);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int next;
+            while ((next = in.read()) != -1) {
+                if (next != '\n') {
+                    line.write(next);
+                    continue;
+                }
+                long offset = indexed;
+                indexed += line.size() + 1;
+                String text = line.toString(StandardCharsets.UTF_8);
+                line.reset();
+                if (text.isBlank()) {
+                    continue;
+                }
+                try {
+                    remember(objectMapper.readValue(text, JournalRecord.class), offset, indexed - offset);
+                } catch (IOException e) {
+                    System.err.println("Журнал поврежден, остаток пропущен: " + e.getMessage());
+                    damaged = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void remember(JournalRecord record, long offset, long length) {
+        if (record.getUsername() != null) {
+            positions.computeIfAbsent(UserStorage.normalize(record.getUsername()), key -> new ArrayList<>())
+                    .add(new long[] { offset, length });
+        }
+    }
+
+    /**
+     * Сбрасывает запомненные положения (журнал переписан или удален)
+     */
+    private void forget() {
+        positions.clear();
+        indexed = 0;
+        indexedFile = null;
+        damaged = false;
+    }
+
+    /**
+     * @return ключ файла журнала (null - файла нет или ключ недоступен)
+     */
+    private Object fileKey() {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Читает все записи журнала по порядку.
+     * Недописанная последняя строка (сбой во время записи) отбрасывается.
+     *
+     * @return список записей
+     */
+    public synchronized List<JournalRecord> readAll() {
+        List<JournalRecord> records = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return records;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    records.add(objectMapper.readValue(line, JournalRecord.class));
+                } catch (IOException e) {
+                    System.err.println("Журнал поврежден, остаток пропущен: " + e.getMessage());
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка чтения журнала: " + e.getMessage());
+        }
+        return records;
+    }
+
+    /**
+     * Очищает журнал целиком.
+     *
+     * @throws IOException при ошибке записи
+     */
+    public synchronized void truncate() throws IOException {
+        forget();
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Оставляет в журнале только записи, которых еще нет в снимке.
+     * Журнал переписывается атомарно; записи, дописанные во время записи
+     * снимка, сохраняются.
+     *
+     * @param keep условие сохранения записи
+     * @throws IOException при ошибке записи
+     */
+    public synchronized void retain(Predicate<JournalRecord> keep) throws IOException {
+        List<JournalRecord> records = readAll();
+        List<JournalRecord> kept = new ArrayList<>();
+        for (JournalRecord record : records) {
+            if (keep.test(record)) {
+                kept.add(record);
+            }
+        }
+        if (kept.isEmpty()) {
+            truncate();
+            return;
+        }
+        if (kept.size() == records.size()) {
+            return;
+        }
+        forget();
+        AtomicFiles.write(path, out -> {
+            for (JournalRecord record : kept) {
+                out.write((objectMapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    /**
+     * Оставляет записи пользователей снимка, которых еще нет в снимке.
+     * Записи пользователей, отсутствующих в полном снимке (удаленных), отбрасываются.
+     *
+     * @param versions нормализованное имя -> версия кошелька в снимке
+     *                 ({@link #ALL_RECORDS} - пользователь перенесен из
+     *                 прежнего снимка, все его записи сохраняются)
+     * @throws IOException при ошибке записи
+     */
+    public void retainNewerThan(Map<String, Long> versions) throws IOException {
+        retain(record -> {
+            Long version = record.getUsername() == null ? null
+                    : versions.get(UserStorage.normalize(record.getUsername()));
+            return version != null && (version == ALL_RECORDS || record.isNewerThan(version));
+        });
+    }
+}
@@ -5,7 +5,6 @@ import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.stream.Collectors;
 
 import org.exception.WalletExceptions.BudgetExceededException;
 import org.exception.WalletExceptions.IncomeCategoryAlreadyExistsException;
@@ -17,6 +16,7 @@ import org.model.User;
 import org.model.Wallet;
 import org.service.AuthService;
 import org.service.ExportService;
+import org.service.UserService;
 import org.service.WalletService;
 
 /**
@@ -27,19 +27,27 @@ public class CLI {
     private final Scanner scanner;
     private final AuthService authService;
     private final WalletService walletService;
+    private final ExportService exportService;
+    private final UserService userService;
     private User loggedUser;
 
     public CLI() {
+        // Все сервисы работают с одним резидентным репозиторием пользователей
+        UserService userService = UserService.shared();
         this.scanner = new Scanner(System.in, "CP866");
-        this.authService = new AuthService();
-        this.walletService = new WalletService();
+        this.authService = new AuthService(userService);
+        this.walletService = new WalletService(userService);
+        this.exportService = new ExportService(userService);
+        this.userService = userService;
         this.loggedUser = null;
     }
 
     public CLI(AuthService authService, WalletService walletService) {
         this.scanner = new Scanner(System.in, "CP866");
         this.authService = authService;
-        this.walletService = new WalletService();
+        this.walletService = walletService;
+        this.exportService = new ExportService();
+        this.userService = UserService.shared();
         this.loggedUser = null;
     }
 
@@ -117,6 +125,8 @@ public class CLI {
                 case "exit", "q" -> exit();
                 case "category" -> handleCategory(args);
                 case "logout" -> logout(args);
+                case "compact" -> compact(args);
+                case "report" -> showReport(args);
                 default -> System.out.println("Неизвестная команда! Используйте команды из списка.");
             }
             System.out.println("Операция завершена");
@@ -164,6 +174,21 @@ public class CLI {
 
     }
 
+    /**
+     * Компактификация хранилища: новый снимок и свертка журнала
+     */
+    private void compact(String[] args) {
+        if (args.length != 1) {
+            System.out.println("У команды нет параметров");
+            return;
+        }
+        if (userService.compact()) {
+            System.out.println("Снимок данных записан, журнал изменений свернут");
+        } else {
+            System.out.println("Компактификация завершилась с ошибками");
+        }
+    }
+
     /**
      * Показать список категорий
      */
@@ -309,18 +334,10 @@ public class CLI {
             return;
         }
 
-        // Применяем фильтры
-        List<Transaction> filtered = loggedUser.getWallet().getTransactions().stream()
-                .filter(tx -> category == null || tx.getCategory().equals(category))
-                .filter(tx -> type == null || tx.getTransactionType().getName().equalsIgnoreCase(type))
-                .filter(tx -> fromArg == null || !tx.getTimestamp().isBefore(fromArg))
-                .filter(tx -> toArg == null || !tx.getTimestamp().isAfter(toArg))
-                .collect(Collectors.toList());
-
-        // Применяем ограничение по количеству
-        if (count != null && count > 0 && count < filtered.size()) {
-            filtered = filtered.subList(filtered.size() - count, filtered.size());
-        }
+        // Выборка за период и последние N транзакций без прохода по всей истории
+        List<Transaction> filtered = loggedUser.getWallet().findTransactions(category, fromArg, toArg,
+                tx -> type == null || tx.getTransactionType().getName().equalsIgnoreCase(type),
+                count != null && count > 0 ? count : 0);
 
         // Выводим результат
         if (filtered.isEmpty()) {
@@ -330,6 +347,40 @@ public class CLI {
         }
     }
 
+    /**
+     * Отчет по дням или месяцам
+     */
+    private void showReport(String[] args) {
+        Map<String, String> parsedArgs;
+        try {
+            parsedArgs = CommandParser.parseCommand(args, "report");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return;
+        }
+
+        String period = parsedArgs.getOrDefault("-p", "month");
+        if (!period.equalsIgnoreCase("day") && !period.equalsIgnoreCase("month")) {
+            System.out.println("Период должен быть day или month");
+            return;
+        }
+
+        LocalDateTime fromArg;
+        LocalDateTime toArg;
+        try {
+            fromArg = UtilsCLI.parseDateTime(parsedArgs.get("-from"));
+            toArg = UtilsCLI.parseDateTime(parsedArgs.get("-to"));
+        } catch (Exception e) {
+            System.out.println("Ошибка парсинга дат: " + e.getMessage());
+            return;
+        }
+
+        walletService.printReport(loggedUser, period.equalsIgnoreCase("month"),
+                fromArg != null ? fromArg.toLocalDate() : null,
+                toArg != null ? toArg.toLocalDate() : null,
+                parsedArgs.get("-c"));
+    }
+
     /**
      * Удаление транзакций
      */
@@ -442,7 +493,6 @@ public class CLI {
                 walletService.addIncome(loggedUser, category, amount);
                 break;
         }
-        walletService.showBudgetWarning(loggedUser, category);
         walletService.showBudgetWarningTotal(loggedUser);
     }
 
@@ -676,7 +726,6 @@ public class CLI {
             return;
         }
 
-        ExportService exportService = new ExportService();
         try {
             exportService.exportUserData(loggedUser,
                     arguments.getOrDefault("-f", exportService.generateExportFileName(loggedUser)));
@@ -704,7 +753,6 @@ public class CLI {
                 return;
         }
 
-        ExportService exportService = new ExportService();
         try {
             exportService.importUserData(loggedUser,
                     arguments.getOrDefault("-f", exportService.generateExportFileName(loggedUser)));
@@ -22,6 +22,7 @@ public class CLIText {
       status                                   - показать статус счета и бюджета
       actions list [параметры]                 - показать транзакции с фильтрацией
       actions remove [-i <id>]                 - удалить транзакцию по ID
+      report [-p <day|month> -c <категория> -from <дата> -to <дата>] - доходы и расходы по периодам
       add_income [-c <категория> -a <сумма>]   - добавить доход
       add_outcome [-c <категория> -a <сумма>]  - добавить фактический расход
       set_budget [-c <категория> -a <сумма>]   - установить бюджет (планируемый расход)
@@ -32,6 +33,7 @@ public class CLIText {
       export [-f <файл>]                       - экспорт данных
       import [-f <файл>]                       - импорт данных
       logout                                   - выход из профиля
+      compact                                  - записать снимок данных и свернуть журнал
       help [<команда>]                         - показать справку
       exit | q                                 - выход из программы
       """;
@@ -117,6 +119,25 @@ public class CLIText {
         actions list -n 10 -from "01.01.2024" -to "31.01.2024"
       """;
 
+  /** Справка по отчету по периодам */
+  public static final String REPORT_HELP = """
+      --- Отчет по периодам ---
+      report [-p <day|month> -c <категория> -from <дата> -to <дата>]
+
+      Показывает доходы и фактические расходы по категориям за каждый
+      день или месяц периода.
+
+      Параметры:
+        -p <период>      - day (по дням) или month (по месяцам, по умолчанию)
+        -c <категория>   - фильтр по категории
+        -from <дата>     - начало периода (формат: dd.MM.yyyy)
+        -to <дата>       - конец периода (формат: dd.MM.yyyy)
+
+      Примеры:
+        report -from "01.01.2024" -to "31.12.2024"
+        report -p day -c "Продукты" -from "01.03.2024"
+      """;
+
   /** Справка по удалению транзакций */
   public static final String ACTIONS_REMOVE_HELP = """
       --- Удаление транзакции ---
@@ -209,6 +230,16 @@ public class CLIText {
       Завершает текущую сессию пользователя и возвращает в меню авторизации.
       """;
 
+  /** Справка по компактификации */
+  public static final String COMPACT_HELP = """
+      --- Компактификация хранилища ---
+      compact
+
+      Записывает свежий снимок данных всех пользователей, освобождает место
+      удаленных транзакций и сворачивает журнал изменений. Работа с кошельками
+      во время компактификации не останавливается.
+      """;
+
   /** Справка по выходу из программы */
   public static final String EXIT_HELP = """
       --- Выход из программы ---
@@ -236,6 +267,8 @@ public class CLIText {
       Map.entry("export", EXPORT_HELP),
       Map.entry("import", IMPORT_HELP),
       Map.entry("logout", LOGOUT_HELP),
+      Map.entry("compact", COMPACT_HELP),
+      Map.entry("report", REPORT_HELP),
       Map.entry("exit", EXIT_HELP),
       Map.entry("q", EXIT_HELP));
 
@@ -29,6 +29,8 @@ public class CommandParser {
         commandArgs.put("category add", Arrays.asList("-c", "-t"));
         commandArgs.put("export", Arrays.asList("-f"));
         commandArgs.put("import", Arrays.asList("-f"));
+        commandArgs.put("compact", Collections.emptyList());
+        commandArgs.put("report", Arrays.asList("-p", "-c", "-from", "-to"));
     }
 
     public static Map<String, String> parseCommand(String[] args, String command) {
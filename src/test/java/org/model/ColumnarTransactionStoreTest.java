@@ -0,0 +1,171 @@
+package org.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class ColumnarTransactionStoreTest {
+
+    // Проверка чтения, удаления и изменения транзакций в столбцах
+    @Test
+    void testStoreKeepsTransactionFields() {
+        ColumnarTransactionStore store = new ColumnarTransactionStore(1);
+        LocalDateTime time = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_456_000);
+        for (int i = 1; i <= 5; i++) {
+            Transaction transaction = new Transaction(i % 2 == 0 ? "Еда" : "Зарплата", i * 100,
+                    i % 2 == 0 ? TransactionType.OUTCOME_SPENT : TransactionType.INCOME);
+            transaction.setId(i);
+            transaction.setTimestamp(time.plusDays(i));
+            store.add(transaction);
+        }
+        store.add(new Transaction());
+
+        assertTrue(store.removeIf(tx -> tx.getId() == 2));
+        store.updateAll(tx -> {
+            if ("Еда".equals(tx.getCategory())) {
+                tx.setCategory("Продукты");
+            }
+        });
+
+        List<Transaction> result = new ArrayList<>();
+        store.forEach(result::add);
+        assertEquals(5, store.size());
+        assertEquals(4, result.get(2).getId());
+        assertEquals("Продукты", result.get(2).getCategory());
+        assertEquals(400, result.get(2).getAmount());
+        assertEquals(TransactionType.OUTCOME_SPENT, result.get(2).getTransactionType());
+        assertEquals(time.plusDays(4), result.get(2).getTimestamp());
+        assertNull(result.get(4).getCategory());
+        assertNull(result.get(4).getTimestamp());
+    }
+
+    // Проверка индекса категорий при удалении, переименовании и выборке
+    @Test
+    void testCategoryIndex() {
+        ColumnarTransactionStore store = new ColumnarTransactionStore();
+        LocalDateTime time = LocalDateTime.of(2024, 1, 1, 0, 0);
+        String[] categories = { "Еда", "Такси", "Еда", "Кино", "Еда", "Такси" };
+        for (int i = 0; i < categories.length; i++) {
+            Transaction transaction = new Transaction(categories[i], i + 1,
+                    i == 2 ? TransactionType.OUTCOME_PLANNED : TransactionType.OUTCOME_SPENT);
+            transaction.setId(i + 1);
+            transaction.setTimestamp(time.plusHours(i));
+            store.add(transaction);
+        }
+
+        assertTrue(store.removeCategory("Такси", TransactionType.OUTCOME_SPENT));
+        store.renameCategory("Еда", "outcome", "Кино");
+
+        List<Transaction> cinema = store.select("Кино", time.plusHours(1), null, tx -> true, 0);
+        assertEquals(List.of(3L, 4L, 5L), cinema.stream().map(Transaction::getId).toList());
+        assertEquals(List.of(5L), store.select("Кино", null, null,
+                tx -> tx.getTransactionType() == TransactionType.OUTCOME_SPENT, 1)
+                .stream().map(Transaction::getId).toList());
+        assertTrue(store.select("Такси", null, null, tx -> true, 0).isEmpty());
+        assertEquals(4, store.size());
+    }
+
+    // Удаленные строки пропускаются и освобождаются уплотнением
+    @Test
+    void testTombstonesCompacted() {
+        ColumnarTransactionStore store = new ColumnarTransactionStore();
+        for (int i = 1; i <= 100; i++) {
+            Transaction transaction = new Transaction(i % 2 == 0 ? "Еда" : "Такси", i, TransactionType.OUTCOME_SPENT);
+            transaction.setId(i);
+            store.add(transaction);
+        }
+
+        assertTrue(store.removeIf(tx -> tx.getId() <= 10));
+        assertEquals(90, store.size());
+        assertEquals(10, store.removedCount());
+        assertEquals(11L, store.iterator().next().getId());
+        assertEquals(11L, store.get(0).getId());
+        assertEquals(100L, store.get(89).getId());
+        store.removeById(50);
+        assertEquals(51L, store.get(39).getId()); // таблица живых строк перестроена
+
+        assertTrue(store.removeCategory("Такси", TransactionType.OUTCOME_SPENT));
+        assertEquals(44, store.size());
+        assertEquals(0, store.removedCount());
+        assertEquals(List.of(96L, 98L, 100L), store.select("Еда", null, null, tx -> true, 3)
+                .stream().map(Transaction::getId).toList());
+    }
+
+    // Переименование категории меняет только словарь, строки делят одну строку названия
+    @Test
+    void testRenameUpdatesDictionary() {
+        ColumnarTransactionStore store = new ColumnarTransactionStore();
+        for (int i = 1; i <= 1000; i++) {
+            Transaction transaction = new Transaction(new String("Еда"), i,
+                    i == 1 ? TransactionType.OUTCOME_PLANNED : TransactionType.OUTCOME_SPENT);
+            transaction.setId(i);
+            store.add(transaction);
+        }
+        Transaction income = new Transaction("Подарки", 5, TransactionType.INCOME);
+        income.setId(1001);
+        store.add(income);
+        store.removeCategory("Подарки", TransactionType.INCOME);
+
+        store.renameCategory("Еда", "outcome", "Подарки");
+
+        assertTrue(store.select("Еда", null, null, tx -> true, 0).isEmpty());
+        List<Transaction> renamed = store.select("Подарки", null, null, tx -> true, 0);
+        assertEquals(1000, renamed.size());
+        assertSame(renamed.get(0).getCategory(), renamed.get(999).getCategory());
+
+        Transaction salary = new Transaction("Подарки", 7, TransactionType.INCOME);
+        salary.setId(1002);
+        store.add(salary);
+        store.renameCategory("Подарки", "income", "Бонусы");
+        assertEquals(List.of(1002L), store.select("Бонусы", null, null, tx -> true, 0)
+                .stream().map(Transaction::getId).toList());
+        assertEquals(1000, store.select("Подарки", null, null, tx -> true, 0).size());
+    }
+
+    // Параллельный подсчет итогов совпадает с последовательным
+    @Test
+    void testParallelAggregationMatchesSequential() {
+        ColumnarTransactionStore store = new ColumnarTransactionStore();
+        TransactionType[] types = TransactionType.values();
+        LocalDateTime time = LocalDateTime.of(2023, 1, 1, 0, 0);
+        for (int i = 1; i <= 200_000; i++) {
+            Transaction transaction = new Transaction(i % 997 == 0 ? null : "Категория " + (i * 7 % 13),
+                    i % 1000, types[i * 31 % types.length]);
+            transaction.setId(i);
+            transaction.setTimestamp(time.plusMinutes(i * 3L));
+            store.add(transaction);
+        }
+        store.removeIf(tx -> tx.getId() % 5 == 0);
+
+        WalletAggregates sequential = WalletAggregates.of(store, false);
+        WalletAggregates parallel = WalletAggregates.of(store, true);
+        assertEquals(sequential.totalIncome(), parallel.totalIncome());
+        assertEquals(sequential.totalSpent(), parallel.totalSpent());
+        assertEquals(sequential.totalPlanned(), parallel.totalPlanned());
+        assertEquals(sequential.incomeByCategory(), parallel.incomeByCategory());
+        assertEquals(sequential.spentByCategory(), parallel.spentByCategory());
+        assertEquals(sequential.plannedByCategory(), parallel.plannedByCategory());
+        assertEquals(sequential.incomeCategories(), parallel.incomeCategories());
+        assertEquals(sequential.outcomeCategories(), parallel.outcomeCategories());
+
+        var days = WalletRollups.of(store, false).report(false, null, null, null);
+        var parallelDays = WalletRollups.of(store, true).report(false, null, null, null);
+        assertEquals(days.keySet(), parallelDays.keySet());
+        days.forEach((day, bucket) -> {
+            assertEquals(List.copyOf(bucket.keySet()), List.copyOf(parallelDays.get(day).keySet()));
+            bucket.forEach((category, totals) -> {
+                for (TransactionType type : types) {
+                    assertEquals(totals.getAmount(type), parallelDays.get(day).get(category).getAmount(type));
+                    assertEquals(totals.getCount(type), parallelDays.get(day).get(category).getCount(type));
+                }
+            });
+        });
+    }
+}
@@ -1,6 +1,9 @@
 package org.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
 
 class UserTest {
@@ -20,4 +23,20 @@ class UserTest {
         assertEquals("newSalt", user.getSalt());
     }
 
+    // Копия записанного кошелька снимается только при обращении к нему
+    @Test
+    void testCopyDefersCleanWallet() {
+        User user = new User("testUser", "password123");
+        user.getWallet().addTransaction(new Transaction("Зарплата", 100, TransactionType.INCOME));
+        User dirty = user.copy();
+        assertTrue(dirty.isWalletLoaded());
+
+        user.markFlushed(user.getVersion(), user.getWalletVersion());
+        User clean = user.copy();
+        assertFalse(clean.isWalletLoaded());
+        assertNotSame(user.getWallet(), clean.readWallet());
+        assertFalse(clean.isWalletLoaded()); // прочитанный кошелек не запоминается
+        assertEquals(100, clean.getWallet().getTotalIncome());
+    }
+
 }
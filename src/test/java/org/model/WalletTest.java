@@ -2,8 +2,17 @@ package org.model;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -130,6 +139,34 @@ class WalletTest {
         assertFalse(wallet.isBudgetWarning("Продукты"));
     }
     
+    // События пересечения порогов бюджета
+    @Test
+    void testBudgetEvents() {
+        List<String> events = new ArrayList<>();
+        wallet.addBudgetListener(new BudgetListener() {
+            @Override
+            public void budgetChanged(String category, BudgetStatus previous, BudgetStatus current) {
+                events.add(category + ":" + current);
+            }
+
+            @Override
+            public void incomeChanged(boolean plannedExceeded, boolean spentExceeded) {
+                events.add("income:" + plannedExceeded + "/" + spentExceeded);
+            }
+        });
+        wallet.addTransaction(new Transaction("Зарплата", 2000, TransactionType.INCOME));
+        wallet.addTransaction(new Transaction("Продукты", 1000, TransactionType.OUTCOME_PLANNED));
+
+        wallet.addTransaction(new Transaction("Продукты", 500, TransactionType.OUTCOME_SPENT));
+        wallet.addTransaction(new Transaction("Продукты", 400, TransactionType.OUTCOME_SPENT));
+        wallet.addTransaction(new Transaction("Продукты", 50, TransactionType.OUTCOME_SPENT));
+        wallet.addTransaction(new Transaction("Продукты", 1100, TransactionType.OUTCOME_SPENT));
+
+        assertEquals(List.of("Продукты:WITHIN", "Продукты:WARNING", "Продукты:EXCEEDED", "income:false/true"),
+                events);
+        assertEquals(BudgetStatus.EXCEEDED, wallet.getBudgetStatus("Продукты"));
+    }
+
     // Проверка на пустые категории
     @Test
     void testEmptyWalletOperations() {
@@ -140,4 +177,151 @@ class WalletTest {
         assertEquals(0, wallet.getTotalOutcomeSpent());
     }
 
-} 
+    // Проверка итогов после удаления и переименования
+    @Test
+    void testTotalsAfterRemoveAndRename() {
+        wallet.addTransaction(new Transaction("Зарплата", 5000, TransactionType.INCOME));
+        wallet.addTransaction(new Transaction("Еда", 1000, TransactionType.OUTCOME_PLANNED));
+        wallet.addTransaction(new Transaction("Еда", 300, TransactionType.OUTCOME_SPENT));
+        wallet.addTransaction(new Transaction("Еда", 2000, TransactionType.OUTCOME_PLANNED));
+        assertEquals(2000, wallet.getTotalOutcomePlanned());
+
+        wallet.removeTransaction(4);
+        assertEquals(1000, wallet.getTotalOutcomePlanned());
+        assertEquals(700, wallet.getRemainingBudget("Еда"));
+
+        wallet.renameCategory("Еда", "outcome", "Продукты");
+        assertFalse(wallet.hasOutcomeCategory("Еда"));
+        assertEquals(300, wallet.getSpentOutcomeByCategory().get("Продукты"));
+        assertEquals(700, wallet.getRemainingBudget("Продукты"));
+
+        wallet.removeTransactionsByCategoryAndType("Зарплата", TransactionType.INCOME);
+        assertEquals(0, wallet.getTotalIncome());
+        assertTrue(wallet.getIncomeCategories().isEmpty());
+    }
+
+    // Проверка выборки за период и последних N транзакций
+    @Test
+    void testFindTransactionsByPeriod() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 10, 0);
+        int[] days = { 0, 1, 2, 5, 3, 4 }; // импорт нарушил порядок
+        for (int day : days) {
+            Transaction transaction = new Transaction("Еда", 100 + day, TransactionType.OUTCOME_SPENT);
+            transaction.setTimestamp(start.plusDays(day));
+            wallet.addTransaction(transaction);
+        }
+
+        List<Transaction> period = wallet.findTransactions(null, start.plusDays(1), start.plusDays(4), tx -> true, 0);
+        assertEquals(List.of(101L, 102L, 103L, 104L), period.stream().map(Transaction::getAmount).toList());
+
+        List<Transaction> last = wallet.findTransactions(null, null, null, tx -> tx.getAmount() % 2 == 1, 2);
+        assertEquals(List.of(103L, 105L), last.stream().map(Transaction::getAmount).toList());
+    }
+
+    // Проверка отчета по дням и месяцам
+    @Test
+    void testReportByPeriods() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 30, 12, 0);
+        for (int day = 0; day < 4; day++) {
+            Transaction transaction = new Transaction("Еда", 100, TransactionType.OUTCOME_SPENT);
+            transaction.setTimestamp(start.plusDays(day));
+            wallet.addTransaction(transaction);
+        }
+        assertEquals(2, wallet.getReport(true, null, null, null).size());
+
+        wallet.removeTransaction(1);
+        wallet.renameCategory("Еда", "outcome", "Продукты");
+        Transaction income = new Transaction("Зарплата", 500, TransactionType.INCOME);
+        income.setTimestamp(start.plusDays(2));
+        wallet.addTransaction(income);
+
+        SortedMap<LocalDate, Map<String, PeriodTotals>> months = wallet.getReport(true, null, null, null);
+        assertEquals(100, months.get(LocalDate.of(2024, 1, 1)).get("Продукты")
+                .getAmount(TransactionType.OUTCOME_SPENT));
+        assertEquals(2, months.get(LocalDate.of(2024, 2, 1)).get("Продукты").getCount(TransactionType.OUTCOME_SPENT));
+        assertEquals(500, months.get(LocalDate.of(2024, 2, 1)).get("Зарплата").getAmount(TransactionType.INCOME));
+
+        SortedMap<LocalDate, Map<String, PeriodTotals>> days = wallet.getReport(false,
+                LocalDate.of(2024, 2, 1), LocalDate.of(2024, 2, 1), "Зарплата");
+        assertEquals(List.of(LocalDate.of(2024, 2, 1)), List.copyOf(days.keySet()));
+
+        // переименование без транзакций нужного типа не создает пустых категорий
+        wallet.renameCategory("Продукты", "income", "Бонусы");
+        assertNull(wallet.getReport(true, null, null, null).get(LocalDate.of(2024, 1, 1)).get("Бонусы"));
+        assertTrue(wallet.getReport(false, null, null, "Бонусы").isEmpty());
+    }
+
+    // ID не пересчитываются при удалении
+    @Test
+    void testIdsStableAfterRemoval() {
+        for (int i = 0; i < 3; i++) {
+            wallet.addTransaction(new Transaction("Еда", 100, TransactionType.OUTCOME_SPENT));
+        }
+        assertTrue(wallet.removeTransaction(2));
+        wallet.addTransaction(new Transaction("Еда", 100, TransactionType.OUTCOME_SPENT));
+
+        assertEquals(List.of(1L, 3L, 4L), wallet.streamTransactions().map(Transaction::getId).toList());
+        assertFalse(wallet.removeTransaction(2));
+    }
+
+    // Поиск и удаление по ID в большом кошельке
+    @Test
+    void testLookupAndRemovalById() {
+        List<Transaction> batch = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            batch.add(new Transaction("Еда", 10, i % 10 == 0 ? TransactionType.OUTCOME_PLANNED
+                    : TransactionType.OUTCOME_SPENT));
+        }
+        wallet.addTransactions(batch);
+        assertEquals(10, wallet.getPlannedOutcomeByCategory().get("Еда"));
+
+        assertEquals(TransactionType.OUTCOME_PLANNED, wallet.getTransaction(99_991).getTransactionType());
+        for (long id = 99_901; id <= 100_000; id++) {
+            assertTrue(wallet.removeTransaction(id));
+        }
+        assertNull(wallet.getTransaction(100_000));
+        assertEquals(10, wallet.getTransaction(50).getAmount());
+        assertEquals(99_900, wallet.getTransactionStore().size());
+        assertEquals(10, wallet.getTotalOutcomePlanned());
+        assertEquals(89_910 * 10L, wallet.getTotalOutcomeSpent());
+    }
+
+    // Представление транзакций только для чтения и обход без копирования
+    @Test
+    void testReadOnlyViewAndVisitor() {
+        List<Transaction> view = wallet.getTransactions();
+        for (int i = 0; i < 3; i++) {
+            wallet.addTransaction(new Transaction("Еда", 100 + i, TransactionType.OUTCOME_SPENT));
+        }
+        wallet.removeTransaction(2);
+
+        assertEquals(2, view.size());
+        assertEquals(3L, view.get(1).getId());
+        assertThrows(UnsupportedOperationException.class,
+                () -> view.add(new Transaction("Еда", 1, TransactionType.OUTCOME_SPENT)));
+        assertThrows(UnsupportedOperationException.class, () -> view.remove(0));
+
+        long[] sum = { 0 };
+        wallet.forEachTransaction((id, category, type, amount, micros) -> sum[0] += amount);
+        assertEquals(202, sum[0]);
+        assertEquals(List.of(1L, 3L), wallet.copy().streamTransactions().map(Transaction::getId).toList());
+    }
+
+    // Транзакции без типа из файла не входят в итоги, новые без типа отклоняются
+    @Test
+    void testTransactionsWithoutType() {
+        Transaction untyped = new Transaction("Зарплата", 500, null);
+        untyped.setId(1);
+        Transaction income = new Transaction("Зарплата", 100, TransactionType.INCOME);
+        income.setId(2);
+        wallet.setTransactions(List.of(untyped, income));
+        wallet.setLastTransactionId(3);
+
+        assertEquals(100, wallet.getTotalIncome());
+        wallet.addTransaction(new Transaction("Премия", 50, TransactionType.INCOME));
+        assertTrue(wallet.removeTransaction(1));
+        assertEquals(150, wallet.getTotalIncome());
+        assertThrows(IllegalArgumentException.class,
+                () -> wallet.addTransaction(new Transaction("Еда", 10, null)));
+    }
+}
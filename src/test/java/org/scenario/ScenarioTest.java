@@ -43,6 +43,8 @@ class ScenarioTest {
             System.out.println("Удален файл: " + TEST_USER_FILE);
 
         }
+        new File(TEST_USER_FILE + ".journal").delete();
+        new File(TEST_USER_FILE + ".idx").delete();
     }
 
     // Проверка добавления категорий с пользователем и кошельком
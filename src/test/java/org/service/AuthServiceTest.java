@@ -4,11 +4,17 @@ import java.io.File;
 import java.io.IOException;
 
 import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.exception.WalletExceptions.WrongPasswordException;
+import org.model.Transaction;
+import org.model.TransactionType;
 import org.model.User;
 
 class AuthServiceTest {
@@ -39,6 +45,8 @@ class AuthServiceTest {
             System.out.println("Удален файл: " + TEST_USER_FILE);
 
         }
+        new File(TEST_USER_FILE + ".journal").delete();
+        new File(TEST_USER_FILE + ".idx").delete();
     }
 
     // Проверка успешного входа за пользователя
@@ -76,4 +84,23 @@ class AuthServiceTest {
         assertNotNull(user.getSalt());
         assertTrue(AuthService.verifyPassword(password, user.getPassword(), user.getSalt()));
     }
-}
\ No newline at end of file
+
+    // Вход с неверным паролем не читает кошелек, успешный - читает при обращении
+    @Test
+    void testLoginDoesNotLoadWallet() throws Exception {
+        User user = new User("user", "user");
+        testAuthService.addUser(user);
+        user.getWallet().addTransaction(new Transaction("Зарплата", 1000L, TransactionType.INCOME));
+        testUserService.updateUser(user);
+
+        UserService restarted = new UserService(TEST_USER_FILE);
+        AuthService auth = new AuthService(restarted);
+        assertThrows(WrongPasswordException.class, () -> auth.login("user", "wrong"));
+        assertFalse(restarted.findUserByName("user").isWalletLoaded());
+
+        User loginUser = auth.login("user", "user");
+        assertFalse(loginUser.isWalletLoaded());
+        assertEquals(1000L, loginUser.getWallet().getTotalIncome());
+        assertTrue(loginUser.isWalletLoaded());
+    }
+}
@@ -0,0 +1,291 @@
+package org.service;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.model.Transaction;
+import org.model.TransactionType;
+import org.model.User;
+import org.storage.JournalRecord;
+import org.storage.JsonFileStorage;
+
+class UserServiceTest {
+
+    private static final String TEST_USER_FILE = "data/test_user_service.json";
+    private UserService userService;
+
+    @BeforeEach
+    void setUp() {
+        cleanupTestFiles();
+        userService = new UserService(TEST_USER_FILE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        cleanupTestFiles();
+    }
+
+    private void cleanupTestFiles() {
+        new File(TEST_USER_FILE).delete();
+        new File(TEST_USER_FILE + ".journal").delete();
+        new File(TEST_USER_FILE + ".idx").delete();
+    }
+
+    // Поиск обслуживается из памяти и не переписывает файл
+    @Test
+    void testLookupServedFromMemory() {
+        userService.addUser(new User("user", "pass"));
+        File file = new File(TEST_USER_FILE);
+        long modified = file.lastModified();
+        file.setLastModified(modified - 10_000);
+
+        User first = userService.findUserByName("USER");
+        User second = userService.findUserByName("user");
+
+        assertNotNull(first);
+        assertSame(first, second);
+        assertNull(userService.findUserByName("unknown"));
+        assertEquals(2, userService.getCacheHits());
+        assertEquals(1, userService.getCacheMisses());
+        assertEquals(modified - 10_000, file.lastModified());
+    }
+
+    // Изменения сохраняются и видны новому экземпляру сервиса
+    @Test
+    void testMutationsPersisted() {
+        User user = new User("user", "pass");
+        userService.addUser(user);
+        user.setSalt("salt");
+        userService.updateUser(user);
+
+        UserService reloaded = new UserService(TEST_USER_FILE);
+        assertEquals("salt", reloaded.findUserByName("user").getSalt());
+
+        reloaded.deleteUser(user);
+        assertNull(new UserService(TEST_USER_FILE).findUserByName("user"));
+    }
+
+    // Регистрация после перезапуска не читает кошельки остальных пользователей
+    @Test
+    void testRegistrationKeepsOtherWalletsUnloaded() {
+        User alice = new User("alice", "pass");
+        userService.addUser(alice);
+        new WalletService(userService).addIncome(alice, "Зарплата", 100L);
+
+        UserService restarted = new UserService(TEST_USER_FILE);
+        restarted.addUser(new User("carol", "pass"));
+
+        User restored = restarted.findUserByName("alice");
+        assertFalse(restored.isWalletLoaded());
+        assertEquals(100L, restored.getWallet().getTotalIncome());
+        assertNotNull(new UserService(TEST_USER_FILE).findUserByName("carol"));
+    }
+
+    // Изменения кошелька пишутся в журнал и восстанавливаются при запуске
+    @Test
+    void testWalletChangesReplayedFromJournal() throws Exception {
+        WalletService walletService = new WalletService(userService);
+        User user = new User("user", "pass");
+        userService.addUser(user);
+        long snapshotLength = new File(TEST_USER_FILE).length();
+
+        walletService.addIncome(user, "Зарплата", 10000L);
+        walletService.addSpentOutcome(user, "Еда", 2000L);
+        walletService.addSpentOutcome(user, "Еда", 500L);
+        walletService.removeTransaction(user, "3");
+        walletService.editCategory(user, "Еда", "outcome", "Продукты");
+
+        assertEquals(snapshotLength, new File(TEST_USER_FILE).length());
+
+        User restored = new UserService(TEST_USER_FILE).findUserByName("user");
+        assertEquals(2, restored.getWallet().getTransactions().size());
+        assertEquals(10000L, restored.getWallet().getTotalIncome());
+        assertEquals(2000L, restored.getWallet().getSpentOutcomeByCategory().get("Продукты"));
+        assertEquals(TransactionType.OUTCOME_SPENT,
+                restored.getWallet().getTransactions().get(1).getTransactionType());
+    }
+
+    // Пакет транзакций сохраняется одной записью журнала
+    @Test
+    void testBatchIngestSingleJournalRecord() throws Exception {
+        WalletService walletService = new WalletService(userService);
+        User user = new User("user", "pass");
+        userService.addUser(user);
+
+        List<Transaction> batch = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            batch.add(new Transaction(i % 2 == 0 ? "Еда" : "Зарплата", 100,
+                    i % 2 == 0 ? TransactionType.OUTCOME_SPENT : TransactionType.INCOME));
+        }
+        assertEquals(20_000, walletService.addTransactions(user, batch));
+        assertThrows(IllegalArgumentException.class, () -> walletService.addTransactions(user,
+                Stream.of(new Transaction("Еда", 100, TransactionType.INCOME), new Transaction(null, 1, null))));
+
+        assertEquals(1, Files.readAllLines(Paths.get(TEST_USER_FILE + ".journal")).size());
+        User restored = new UserService(TEST_USER_FILE).findUserByName("user");
+        assertEquals(20_000, restored.getWallet().getTransactionStore().size());
+        assertEquals(1_000_000L, restored.getWallet().getTotalIncome());
+        assertEquals(20_001, restored.getWallet().getLastTransactionId());
+    }
+
+    // Групповой коммит: изменения за окно пишутся одной записью по flush
+    @Test
+    void testGroupCommitDefersSnapshot() {
+        UserService grouped = new UserService(new JsonFileStorage(TEST_USER_FILE), 60_000);
+        grouped.addUser(new User("first", "pass"));
+        grouped.addUser(new User("second", "pass"));
+
+        assertNull(new UserService(TEST_USER_FILE).findUserByName("first"));
+
+        grouped.flush();
+        UserService reloaded = new UserService(TEST_USER_FILE);
+        assertNotNull(reloaded.findUserByName("first"));
+        assertNotNull(reloaded.findUserByName("second"));
+    }
+
+    // Компактификация сворачивает журнал, уже примененные записи не повторяются
+    @Test
+    void testCompactionFoldsJournal() throws Exception {
+        WalletService walletService = new WalletService(userService);
+        User user = new User("user", "pass");
+        userService.addUser(user);
+        walletService.addIncome(user, "Зарплата", 10000L);
+        walletService.addSpentOutcome(user, "Еда", 2000L);
+        File journal = new File(TEST_USER_FILE + ".journal");
+        assertTrue(journal.exists());
+
+        assertTrue(userService.compact());
+        assertFalse(journal.exists());
+
+        // запись, уже содержащаяся в снимке (например, после сбоя до свертки журнала)
+        JsonFileStorage storage = new JsonFileStorage(TEST_USER_FILE);
+        JournalRecord stale = JournalRecord.add(new Transaction("Еда", 2000L, TransactionType.OUTCOME_SPENT));
+        stale.setVersion(2L);
+        storage.append(user, stale);
+
+        User restored = new UserService(TEST_USER_FILE).findUserByName("user");
+        assertEquals(2, restored.getWallet().getTransactions().size());
+        assertEquals(2000L, restored.getWallet().getTotalOutcomeSpent());
+    }
+
+    // Давние кошельки выгружаются сверх предела после записи ожидающих изменений
+    @Test
+    void testColdWalletsEvicted() {
+        UserService cached = new UserService(new JsonFileStorage(TEST_USER_FILE), 60_000);
+        cached.setWalletCacheLimit(12_000); // два кошелька по 100 транзакций
+        List<User> users = new ArrayList<>();
+        for (String name : List.of("a", "b", "c")) {
+            User user = new User(name, "pass");
+            List<Transaction> batch = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                batch.add(new Transaction("Зарплата", 10L, TransactionType.INCOME));
+            }
+            user.getWallet().addTransactions(batch);
+            cached.addUser(user);
+            users.add(user);
+        }
+
+        assertEquals(1, cached.getWalletEvictions());
+        assertEquals(3, cached.getWalletCacheMisses());
+        assertFalse(users.get(0).isWalletLoaded());
+        assertTrue(users.get(2).isWalletLoaded());
+        assertNotNull(new UserService(TEST_USER_FILE).findUserByName("c")); // записан перед выгрузкой
+
+        assertEquals(1000L, cached.findUserByName("a").getWallet().getTotalIncome());
+        assertEquals(1000L, cached.findUserByName("a").getWallet().getTotalIncome()); // промах учтен здесь
+        assertEquals(1000L, cached.findUserByName("a").getWallet().getTotalIncome());
+        assertEquals(4, cached.getWalletCacheMisses());
+        assertEquals(1, cached.getWalletCacheHits());
+        assertEquals(2, cached.getWalletEvictions());
+        assertTrue(cached.getResidentWalletBytes() <= 12_000);
+    }
+
+    // Догруженные целиком кошельки выгружаются сверх предела сразу
+    @Test
+    void testBulkLoadedWalletsEvicted() {
+        for (String name : List.of("a", "b", "c")) {
+            User user = new User(name, "pass");
+            List<Transaction> batch = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                batch.add(new Transaction("Зарплата", 10L, TransactionType.INCOME));
+            }
+            user.getWallet().addTransactions(batch);
+            userService.addUser(user);
+        }
+
+        UserService restarted = new UserService(fullyLoadingStorage(), 0);
+        restarted.setWalletCacheLimit(12_000); // два кошелька по 100 транзакций
+        assertTrue(restarted.compact());
+        assertTrue(restarted.getResidentWalletBytes() <= 12_000);
+        assertEquals(1, restarted.getWalletEvictions());
+        assertEquals(1000L, restarted.findUserByName("a").getWallet().getTotalIncome());
+
+        UserService deleting = new UserService(fullyLoadingStorage(), 0);
+        deleting.setWalletCacheLimit(6_000);
+        assertTrue(deleting.deleteUser(deleting.findUserByName("c")));
+        assertTrue(deleting.getResidentWalletBytes() <= 6_000);
+        assertEquals(1000L, new UserService(TEST_USER_FILE).findUserByName("b").getWallet().getTotalIncome());
+    }
+
+    /**
+     * Хранилище без загрузки по заголовкам: догружает пользователей целиком
+     */
+    private static JsonFileStorage fullyLoadingStorage() {
+        return new JsonFileStorage(TEST_USER_FILE) {
+            @Override
+            public List<User> loadAllHeaders() {
+                return loadAll();
+            }
+        };
+    }
+
+    // Записываются только измененные пользователи; без изменений файл не переписывается
+    @Test
+    void testOnlyDirtyUsersWritten() {
+        User alice = new User("alice", "pass");
+        User bob = new User("bob", "pass");
+        userService.addUser(alice);
+        userService.addUser(bob);
+        new WalletService(userService).addIncome(alice, "Зарплата", 100L);
+        assertFalse(alice.isDirty()); // изменение уже в журнале
+
+        File file = new File(TEST_USER_FILE);
+        file.setLastModified(file.lastModified() - 10_000);
+        long modified = file.lastModified();
+        assertTrue(userService.updateUser(alice));
+        userService.loadUsers();
+        assertEquals(modified, file.lastModified());
+
+        bob.changePassword("hash", "salt");
+        assertTrue(bob.isDirty());
+        assertTrue(userService.updateUser(bob));
+        assertFalse(bob.isDirty());
+        assertTrue(file.lastModified() != modified);
+        assertTrue(new File(TEST_USER_FILE + ".journal").length() > 0); // alice перенесена вместе с журналом
+
+        UserService reloaded = new UserService(TEST_USER_FILE);
+        User reloadedBob = reloaded.findUserByName("bob");
+        assertEquals("hash", reloadedBob.getPassword());
+        reloadedBob.changePassword("hash2", "salt2");
+        assertTrue(reloaded.updateUser(reloadedBob));
+        assertFalse(reloaded.findUserByName("alice").isWalletLoaded()); // кошелек не копировался и не читался
+
+        UserService restarted = new UserService(TEST_USER_FILE);
+        assertEquals(100L, restarted.findUserByName("alice").getWallet().getTotalIncome());
+        assertEquals("hash2", restarted.findUserByName("bob").getPassword());
+    }
+}
@@ -0,0 +1,156 @@
+package org.storage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.model.Transaction;
+import org.model.TransactionType;
+import org.model.User;
+import org.model.Wallet;
+
+class BinaryUserStorageTest {
+
+    private static final Path TEST_FILE = Paths.get("data/test_binary_storage.bin");
+    private static final String LEGACY_FILE = "data/test_binary_storage.json";
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cleanupTestFiles();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        cleanupTestFiles();
+    }
+
+    private void cleanupTestFiles() throws IOException {
+        Files.deleteIfExists(TEST_FILE);
+        Files.deleteIfExists(Paths.get(TEST_FILE + ".journal"));
+        Files.deleteIfExists(Paths.get(TEST_FILE + ".idx"));
+        Files.deleteIfExists(Paths.get(LEGACY_FILE));
+        Files.deleteIfExists(Paths.get(LEGACY_FILE + ".migrated"));
+        Files.deleteIfExists(Paths.get(LEGACY_FILE + ".journal"));
+        Files.deleteIfExists(Paths.get(LEGACY_FILE + ".idx"));
+    }
+
+    // Пользователи и кошельки переживают запись и чтение вместе с журналом
+    @Test
+    void testRoundTripWithJournal() throws IOException {
+        BinaryUserStorage storage = new BinaryUserStorage(TEST_FILE);
+        User user = new User("User", "hash");
+        user.setSalt(null);
+        Transaction income = new Transaction("Зарплата", 1000L, TransactionType.INCOME);
+        income.setTimestamp(LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_456_000));
+        user.getWallet().addTransaction(income);
+        user.getWallet().addTransaction(new Transaction("Еда", 300L, TransactionType.OUTCOME_PLANNED));
+        storage.saveAll(List.of(user, new User("other", "pass")));
+        storage.append(user, JournalRecord.add(new Transaction("Премия", 500L, TransactionType.INCOME)));
+
+        BinaryUserStorage reopened = new BinaryUserStorage(TEST_FILE);
+        User loaded = reopened.load("user");
+        assertFalse(loaded.isWalletLoaded()); // поиск читает только имя, пароль и соль
+        assertEquals("hash", loaded.getPassword());
+        assertNull(loaded.getSalt());
+        assertEquals(3, loaded.getWallet().getTransactions().size());
+        assertEquals(1500L, loaded.getWallet().getTotalIncome());
+        assertEquals(income.getTimestamp(), loaded.getWallet().getTransactions().get(0).getTimestamp());
+        assertEquals(TransactionType.OUTCOME_PLANNED, loaded.getWallet().getTransactions().get(1).getTransactionType());
+        assertEquals(2, reopened.loadAll().size());
+        assertEquals("data/test_binary_storage.bin", BinaryUserStorage.fileFor("data/test_binary_storage.json").toString());
+    }
+
+    // Транзакция без типа (из прежнего файла) не мешает записи снимка
+    @Test
+    void testTypelessTransactionRoundTrip() {
+        BinaryUserStorage storage = new BinaryUserStorage(TEST_FILE);
+        Transaction typeless = new Transaction("Старое", 50L, null);
+        typeless.setId(1);
+        Transaction income = new Transaction("Зарплата", 1000L, TransactionType.INCOME);
+        income.setId(2);
+        User user = new User("user", "pass", new Wallet(List.of(typeless, income)));
+        assertTrue(storage.saveAll(List.of(user, new User("other", "pass"))));
+
+        List<Transaction> loaded = new BinaryUserStorage(TEST_FILE).load("user").getWallet().getTransactions();
+        assertEquals(2, loaded.size());
+        assertNull(loaded.get(0).getTransactionType());
+        assertEquals(TransactionType.INCOME, loaded.get(1).getTransactionType());
+        assertEquals(2, new BinaryUserStorage(TEST_FILE).loadAll().size());
+    }
+
+    // Данные переносятся из JSON файла, двоичный файл на порядок меньше
+    @Test
+    void testMigrationShrinksFile() throws IOException {
+        User user = new User("user", "pass");
+        String[] categories = { "Продукты", "Зарплата", "Транспорт" };
+        for (int i = 0; i < 1000; i++) {
+            user.getWallet().addTransaction(new Transaction(categories[i % categories.length], 100L + i,
+                    i % 3 == 1 ? TransactionType.INCOME : TransactionType.OUTCOME_SPENT));
+        }
+        new JsonFileStorage(LEGACY_FILE).saveAll(List.of(user));
+        long jsonLength = Files.size(Paths.get(LEGACY_FILE));
+
+        BinaryUserStorage storage = new BinaryUserStorage(TEST_FILE, Paths.get(LEGACY_FILE));
+
+        assertTrue(Files.exists(Paths.get(LEGACY_FILE + ".migrated")));
+        assertTrue(Files.size(TEST_FILE) * 10 < jsonLength);
+        User loaded = storage.load("user");
+        assertEquals(1000, loaded.getWallet().getTransactions().size());
+        assertEquals(user.getWallet().getTotalOutcomeSpent(), loaded.getWallet().getTotalOutcomeSpent());
+        assertEquals(user.getWallet().getTransactions().get(999).getTimestamp().truncatedTo(ChronoUnit.MICROS),
+                loaded.getWallet().getTransactions().get(999).getTimestamp());
+    }
+
+    // Без индекса поиск перестраивает его одним проходом
+    @Test
+    void testIndexRebuiltWhenMissing() throws IOException {
+        BinaryUserStorage storage = new BinaryUserStorage(TEST_FILE);
+        User user = new User("second", "pass");
+        user.getWallet().addTransaction(new Transaction("Зарплата", 1000L, TransactionType.INCOME));
+        storage.saveAll(List.of(new User("first", "pass"), user));
+        Files.delete(Paths.get(TEST_FILE + ".idx"));
+
+        User loaded = new BinaryUserStorage(TEST_FILE).load("SECOND");
+
+        assertEquals("second", loaded.getUsername());
+        assertEquals(1000L, loaded.getWallet().getTotalIncome());
+        assertTrue(Files.exists(Paths.get(TEST_FILE + ".idx")));
+        assertNull(storage.load("missing"));
+    }
+
+    // Запись и удаление одного пользователя переписывают снимок, не теряя журнал остальных
+    @Test
+    void testSaveAndDeleteSingleUser() throws IOException {
+        BinaryUserStorage storage = new BinaryUserStorage(TEST_FILE);
+        User first = new User("first", "pass");
+        User second = new User("second", "pass");
+        storage.saveAll(List.of(first, second));
+        storage.append(second, JournalRecord.add(new Transaction("Зарплата", 1000L, TransactionType.INCOME)));
+
+        User changed = new User("FIRST", "hash");
+        changed.getWallet().addTransaction(new Transaction("Еда", 100L, TransactionType.OUTCOME_SPENT));
+        assertTrue(storage.save(changed));
+        assertTrue(storage.save(new User("third", "pass")));
+
+        BinaryUserStorage reopened = new BinaryUserStorage(TEST_FILE);
+        assertEquals("hash", reopened.load("first").getPassword());
+        assertEquals(100L, reopened.load("first").getWallet().getTotalOutcomeSpent());
+        assertEquals(1000L, reopened.load("second").getWallet().getTotalIncome());
+        assertEquals(3, reopened.loadAll().size());
+
+        assertTrue(reopened.delete("Second"));
+        assertNull(new BinaryUserStorage(TEST_FILE).load("second"));
+        assertEquals(2, new BinaryUserStorage(TEST_FILE).loadAll().size());
+    }
+}
@@ -0,0 +1,165 @@
+package org.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.model.Transaction;
+import org.model.TransactionType;
+import org.model.User;
+
+class JsonFileStorageTest {
+
+    private static final String TEST_USER_FILE = "data/test_json_storage.json";
+
+    @BeforeEach
+    void setUp() {
+        cleanupTestFiles();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cleanupTestFiles();
+    }
+
+    private void cleanupTestFiles() {
+        new File(TEST_USER_FILE).delete();
+        new File(TEST_USER_FILE + ".journal").delete();
+        new File(TEST_USER_FILE + ".idx").delete();
+    }
+
+    // Потоковый поиск находит пользователя без учета регистра и применяет журнал
+    @Test
+    void testStreamingLookup() throws IOException {
+        JsonFileStorage storage = new JsonFileStorage(TEST_USER_FILE);
+        User other = new User("other", "pass");
+        other.getWallet().addTransaction(new Transaction("Еда", 100L, TransactionType.OUTCOME_SPENT));
+        User user = new User("User", "pass");
+        user.getWallet().addTransaction(new Transaction("Зарплата", 1000L, TransactionType.INCOME));
+        storage.saveAll(List.of(other, user));
+        storage.append(user, JournalRecord.add(new Transaction("Премия", 500L, TransactionType.INCOME)));
+
+        User found = storage.load("user");
+
+        assertEquals("User", found.getUsername());
+        assertEquals(1500L, found.getWallet().getTotalIncome());
+        assertNull(storage.load("missing"));
+    }
+
+    // Кошелек может стоять в файле раньше имени пользователя
+    @Test
+    void testStreamingLookupWalletBeforeName() throws IOException {
+        Files.writeString(Paths.get(TEST_USER_FILE),
+                "[{\"wallet\":{\"transactions\":[]},\"username\":\"a\"},"
+                        + "{\"wallet\":{\"transactions\":[],\"lastTransactionId\":7},\"username\":\"b\",\"salt\":\"s\"}]",
+                StandardCharsets.UTF_8);
+
+        User found = new JsonFileStorage(TEST_USER_FILE).load("B");
+
+        assertEquals("s", found.getSalt());
+        assertEquals(7, found.getWallet().getLastTransactionId());
+    }
+
+    // Индекс пишется вместе с файлом и перестраивается, если файл изменен без него
+    @Test
+    void testIndexRebuiltWhenStale() throws IOException {
+        JsonFileStorage storage = new JsonFileStorage(TEST_USER_FILE);
+        storage.saveAll(List.of(new User("first", "pass"), new User("second", "pass")));
+        assertTrue(new File(TEST_USER_FILE + ".idx").exists());
+        assertEquals("second", storage.load("SECOND").getUsername());
+
+        Files.writeString(Paths.get(TEST_USER_FILE), "[{\"username\":\"third\"}]", StandardCharsets.UTF_8);
+
+        JsonFileStorage reopened = new JsonFileStorage(TEST_USER_FILE);
+        assertNull(reopened.load("second"));
+        assertEquals("third", reopened.load("third").getUsername());
+    }
+
+    // Файл заменен файлом той же длины и с тем же временем: объект по индексу
+    // принадлежит другому пользователю, индекс перестраивается
+    @Test
+    void testIndexRebuiltWhenNameMismatch() throws IOException {
+        JsonFileStorage storage = new JsonFileStorage(TEST_USER_FILE);
+        storage.saveAll(List.of(new User("aa", "p1"), new User("bb", "p2")));
+        assertEquals("p1", storage.load("aa").getPassword());
+
+        File file = new File(TEST_USER_FILE);
+        long modified = file.lastModified();
+        String swapped = Files.readString(file.toPath(), StandardCharsets.UTF_8)
+                .replace("\"aa\"", "\"xx\"").replace("\"bb\"", "\"aa\"").replace("\"xx\"", "\"bb\"");
+        Files.writeString(file.toPath(), swapped, StandardCharsets.UTF_8);
+        file.setLastModified(modified);
+
+        User found = storage.load("aa");
+        assertEquals("aa", found.getUsername());
+        assertEquals("p2", found.getPassword());
+        assertEquals("p1", storage.load("bb").getPassword());
+    }
+
+    // Запись и удаление одного пользователя переписывают снимок, не теряя журнал остальных
+    @Test
+    void testSaveAndDeleteSingleUser() throws IOException {
+        JsonFileStorage storage = new JsonFileStorage(TEST_USER_FILE);
+        User first = new User("first", "pass");
+        User second = new User("second", "pass");
+        storage.saveAll(List.of(first, second));
+        storage.append(second, JournalRecord.add(new Transaction("Зарплата", 1000L, TransactionType.INCOME)));
+
+        User changed = new User("FIRST", "hash");
+        changed.getWallet().addTransaction(new Transaction("Еда", 100L, TransactionType.OUTCOME_SPENT));
+        assertTrue(storage.save(changed));
+        assertTrue(storage.save(new User("third", "pass")));
+
+        JsonFileStorage reopened = new JsonFileStorage(TEST_USER_FILE);
+        assertEquals("hash", reopened.load("first").getPassword());
+        assertEquals(100L, reopened.load("first").getWallet().getTotalOutcomeSpent());
+        assertEquals(1000L, reopened.load("second").getWallet().getTotalIncome());
+        assertEquals(3, reopened.loadAll().size());
+
+        assertTrue(reopened.delete("Second"));
+        assertNull(new JsonFileStorage(TEST_USER_FILE).load("second"));
+        assertEquals(2, new JsonFileStorage(TEST_USER_FILE).loadAll().size());
+    }
+
+    // Журнал читает записи одного пользователя по запомненным положениям
+    @Test
+    void testJournalReadsOneUser() throws IOException {
+        WalletJournal journal = new WalletJournal(Paths.get(TEST_USER_FILE + ".journal"));
+        for (int i = 1; i <= 4; i++) {
+            JournalRecord record = JournalRecord.add(new Transaction("Еда", i, TransactionType.OUTCOME_SPENT));
+            record.setUsername(i % 2 == 0 ? "Alice" : "bob");
+            record.setVersion((long) i);
+            journal.append(record);
+        }
+        assertEquals(List.of(2L, 4L), versions(journal.readFor("alice")));
+
+        // запись другого экземпляра журнала дописана в тот же файл
+        JournalRecord other = JournalRecord.add(new Transaction("Кино", 5L, TransactionType.OUTCOME_SPENT));
+        other.setUsername("alice");
+        other.setVersion(5L);
+        new WalletJournal(Paths.get(TEST_USER_FILE + ".journal")).append(other);
+        assertEquals(List.of(2L, 4L, 5L), versions(journal.readFor("ALICE")));
+        assertEquals(List.of(1L, 3L), versions(journal.readFor("bob")));
+
+        journal.retainNewerThan(Map.of("alice", 4L, "bob", WalletJournal.ALL_RECORDS));
+        assertEquals(List.of(5L), versions(journal.readFor("alice")));
+        assertEquals(List.of(1L, 3L), versions(journal.readFor("bob")));
+
+        journal.truncate();
+        assertTrue(journal.readFor("bob").isEmpty());
+    }
+
+    private static List<Long> versions(List<JournalRecord> records) {
+        return records.stream().map(JournalRecord::getVersion).toList();
+    }
+}
@@ -0,0 +1,269 @@
+package org.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.model.ColumnarTransactionStore;
+import org.model.Transaction;
+import org.model.TransactionStore;
+import org.model.TransactionType;
+import org.model.User;
+import org.model.Wallet;
+import org.service.UserService;
+import org.service.WalletService;
+
+class MappedUserStorageTest {
+
+    private static final String LEGACY_FILE = "data/test_mapped.json";
+    private static final Path MAPPED_DIR = Paths.get("data/test_mapped-mapped");
+
+    private MappedUserStorage storage;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cleanupTestFiles();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (storage != null) {
+            storage.close();
+        }
+        cleanupTestFiles();
+    }
+
+    private void cleanupTestFiles() throws IOException {
+        new File(LEGACY_FILE).delete();
+        new File(LEGACY_FILE + ".migrated").delete();
+        if (Files.exists(MAPPED_DIR)) {
+            try (Stream<Path> files = Files.walk(MAPPED_DIR)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    // Кошелек работает прямо с сегментом, изменения видны после перезапуска
+    @Test
+    void testWalletBackedBySegment() throws IOException {
+        User user = new User("User", "pass");
+        user.getWallet().addTransaction(new Transaction("Зарплата", 10000L, TransactionType.INCOME));
+        new JsonFileStorage(LEGACY_FILE).saveAll(List.of(user));
+
+        storage = new MappedUserStorage(MappedUserStorage.directoryFor(LEGACY_FILE), Paths.get(LEGACY_FILE));
+        assertTrue(Files.exists(Paths.get(LEGACY_FILE + ".migrated")));
+
+        User loaded = storage.load("user");
+        Wallet wallet = loaded.getWallet();
+        assertInstanceOf(MappedTransactionSegment.class, wallet.getTransactionStore());
+        for (int i = 0; i < 2000; i++) { // больше начальной емкости сегмента
+            Transaction transaction = new Transaction("Еда", 10L, TransactionType.OUTCOME_SPENT);
+            wallet.addTransaction(transaction);
+            storage.append(loaded, JournalRecord.add(transaction));
+        }
+        wallet.removeTransaction(2);
+        wallet.renameCategory("Еда", "outcome", "Продукты");
+        storage.append(loaded, JournalRecord.rename("Еда", "outcome", "Продукты"));
+        storage.close();
+
+        storage = new MappedUserStorage(MappedUserStorage.directoryFor(LEGACY_FILE), null);
+        Wallet restored = storage.load("USER").getWallet();
+        assertEquals(2000, restored.getTransactionStore().size());
+        assertEquals(10000L, restored.getTotalIncome());
+        assertEquals(19990L, restored.getSpentOutcomeByCategory().get("Продукты"));
+        assertEquals(loaded.getWallet().getLastTransactionId(), restored.getLastTransactionId());
+        assertEquals(1, ((MappedTransactionSegment) restored.getTransactionStore()).removedCount());
+    }
+
+    // Сохранение перестраивает сегмент без удаленных записей, удаление убирает файлы
+    @Test
+    void testSaveRebuildsAndDelete() {
+        storage = new MappedUserStorage(MAPPED_DIR, null);
+        User user = new User("user", "pass");
+        user.getWallet().addTransaction(new Transaction("Зарплата", 500L, TransactionType.INCOME));
+        user.getWallet().addTransaction(new Transaction("Премия", 700L, TransactionType.INCOME));
+        storage.saveAll(List.of(user));
+        user.getWallet().removeTransaction(1);
+
+        user.setWallet(new Wallet(user.getWallet().getTransactions()));
+        storage.save(user);
+        MappedTransactionSegment segment = (MappedTransactionSegment) user.getWallet().getTransactionStore();
+        assertEquals(0, segment.removedCount());
+        assertEquals(700L, storage.load("user").getWallet().getTotalIncome());
+
+        storage.delete("user");
+        assertNull(storage.load("user"));
+        assertEquals(0, storage.loadAll().size());
+    }
+
+    // Компактификация освобождает место удаленных записей
+    @Test
+    void testCompactionReclaimsRemoved() throws Exception {
+        storage = new MappedUserStorage(MAPPED_DIR, null);
+        UserService userService = new UserService(storage, 0);
+        User user = new User("user", "pass");
+        userService.addUser(user);
+        WalletService walletService = new WalletService(userService);
+        walletService.addIncome(user, "Зарплата", 500L);
+        walletService.addIncome(user, "Премия", 700L);
+        walletService.removeTransaction(user, "1");
+        assertEquals(1, ((MappedTransactionSegment) user.getWallet().getTransactionStore()).removedCount());
+
+        assertTrue(userService.compact());
+
+        MappedTransactionSegment segment = (MappedTransactionSegment) user.getWallet().getTransactionStore();
+        assertEquals(0, segment.removedCount());
+        assertEquals(700L, user.getWallet().getTotalIncome());
+        walletService.addIncome(user, "Зарплата", 100L);
+        assertEquals(800L, storage.load("user").getWallet().getTotalIncome());
+    }
+
+    // Транзакция без типа записывается в сегмент и читается обратно
+    @Test
+    void testTypelessTransactionInSegment() {
+        storage = new MappedUserStorage(MAPPED_DIR, null);
+        Transaction typeless = new Transaction("Старое", 50L, null);
+        typeless.setId(1);
+        Transaction income = new Transaction("Зарплата", 1000L, TransactionType.INCOME);
+        income.setId(2);
+        assertTrue(storage.save(new User("user", "pass", new Wallet(List.of(typeless, income)))));
+
+        Wallet wallet = storage.load("user").getWallet();
+        assertInstanceOf(MappedTransactionSegment.class, wallet.getTransactionStore());
+        assertNull(wallet.getTransactionStore().get(0).getTransactionType());
+        assertEquals(TransactionType.INCOME, wallet.getTransactionStore().get(1).getTransactionType());
+        assertEquals(1000L, wallet.getTotalIncome());
+    }
+
+    // Компактификация и запись с перестроением сегмента не блокируют друг друга
+    @Test
+    void testConcurrentReclaimAndSave() {
+        storage = new MappedUserStorage(MAPPED_DIR, null);
+        User user = new User("user", "pass");
+        user.getWallet().addTransaction(new Transaction("Зарплата", 500L, TransactionType.INCOME));
+        assertTrue(storage.save(user));
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            Thread compaction = new Thread(() -> {
+                for (int i = 0; i < 500; i++) {
+                    storage.reclaim(user);
+                }
+            });
+            compaction.start();
+            for (int i = 0; i < 500; i++) {
+                user.setWallet(new Wallet(user.getWallet().getTransactions())); // сегмент перестраивается
+                assertTrue(storage.save(user));
+            }
+            compaction.join();
+        });
+        assertEquals(500L, storage.load("user").getWallet().getTotalIncome());
+    }
+
+    // Выборка одинакова во всех хранилищах: по времени, -n - последние по времени
+    @Test
+    void testSelectInTimeOrderAcrossStores() throws IOException {
+        Files.createDirectories(MAPPED_DIR);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 12, 0);
+        int[] days = { 5, 1, 3, -1, 0, 3, 2 }; // -1 - без времени (старая запись)
+        List<Transaction> transactions = new ArrayList<>();
+        for (int i = 0; i < days.length; i++) {
+            Transaction transaction = new Transaction(i % 2 == 0 ? "Еда" : "Кино", 100L,
+                    TransactionType.OUTCOME_SPENT);
+            transaction.setId(i + 1);
+            transaction.setTimestamp(days[i] < 0 ? null : start.plusDays(days[i]));
+            transactions.add(transaction);
+        }
+        List<Transaction> plain = new ArrayList<>(transactions);
+        TransactionStore listed = new TransactionStore() { // выборка по умолчанию
+            public int size() {
+                return plain.size();
+            }
+
+            public void add(Transaction transaction) {
+                plain.add(transaction);
+            }
+
+            public boolean removeIf(Predicate<Transaction> filter) {
+                return plain.removeIf(filter);
+            }
+
+            public void updateAll(Consumer<Transaction> action) {
+                plain.forEach(action);
+            }
+
+            public Iterator<Transaction> iterator() {
+                return plain.iterator();
+            }
+        };
+        try (MappedTransactionSegment segment = MappedTransactionSegment.create(MAPPED_DIR.resolve("order.seg"),
+                new CategoryDictionary(MAPPED_DIR.resolve("order.cat")), transactions)) {
+            for (TransactionStore store : List.of(new ColumnarTransactionStore(transactions), segment, listed)) {
+                assertEquals(List.of(4L, 5L, 2L, 7L, 3L, 6L, 1L), ids(store.select(null, null, null, tx -> true, 0)));
+                assertEquals(List.of(6L, 1L), ids(store.select(null, null, null, tx -> true, 2)));
+                assertEquals(List.of(3L), ids(store.select("Еда", null, start.plusDays(4), tx -> true, 1)));
+                assertEquals(List.of(2L, 7L), ids(store.select(null, start.plusDays(1), start.plusDays(2),
+                        tx -> true, 0)));
+            }
+        }
+    }
+
+    private static List<Long> ids(List<Transaction> transactions) {
+        return transactions.stream().map(Transaction::getId).toList();
+    }
+
+    // Обход, выборка, доступ по номеру и удаление категории читают записи сегмента
+    @Test
+    void testSegmentReadsRecords() throws IOException {
+        Files.createDirectories(MAPPED_DIR);
+        CategoryDictionary categories = new CategoryDictionary(MAPPED_DIR.resolve("test.cat"));
+        List<Transaction> transactions = new ArrayList<>();
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 12, 0);
+        for (int i = 0; i < 6; i++) {
+            Transaction transaction = new Transaction(i % 2 == 0 ? "Еда" : "Зарплата", 100L * (i + 1),
+                    i % 2 == 0 ? TransactionType.OUTCOME_SPENT : TransactionType.INCOME);
+            transaction.setId(i + 1);
+            transaction.setTimestamp(start.plusDays(i));
+            transactions.add(transaction);
+        }
+        try (MappedTransactionSegment segment = MappedTransactionSegment.create(MAPPED_DIR.resolve("test.seg"),
+                categories, transactions)) {
+            segment.removeById(3);
+
+            List<Long> visited = new ArrayList<>();
+            segment.visit((id, category, type, amount, epochMicros) -> visited.add(id));
+            assertEquals(List.of(1L, 2L, 4L, 5L, 6L), visited);
+            assertEquals(4L, segment.get(2).getId());
+
+            List<Transaction> selected = segment.select("Еда", start, start.plusDays(5), tx -> true, 1);
+            assertEquals(1, selected.size());
+            assertEquals(5L, selected.get(0).getId());
+            assertEquals(List.of(2L, 4L), segment.select(null, start.plusDays(1), start.plusDays(3), tx -> true, 0)
+                    .stream().map(Transaction::getId).toList());
+            assertTrue(segment.select("Нет", null, null, tx -> true, 0).isEmpty());
+
+            assertTrue(segment.removeCategory("Еда", TransactionType.OUTCOME_SPENT));
+            assertFalse(segment.removeCategory("Еда", TransactionType.INCOME));
+            assertEquals(3, segment.size());
+        }
+    }
+}
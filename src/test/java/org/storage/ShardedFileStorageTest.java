@@ -0,0 +1,99 @@
+package org.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.model.Transaction;
+import org.model.TransactionType;
+import org.model.User;
+
+class ShardedFileStorageTest {
+
+    private static final String LEGACY_FILE = "data/test_sharded.json";
+    private static final Path SHARD_DIR = Paths.get("data/test_sharded");
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cleanupTestFiles();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        cleanupTestFiles();
+    }
+
+    private void cleanupTestFiles() throws IOException {
+        new File(LEGACY_FILE).delete();
+        new File(LEGACY_FILE + ".migrated").delete();
+        new File(LEGACY_FILE + ".journal").delete();
+        new File(LEGACY_FILE + ".idx").delete();
+        if (Files.exists(SHARD_DIR)) {
+            try (Stream<Path> files = Files.walk(SHARD_DIR)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    // Перенос из единого файла и запись одного пользователя в свой файл
+    @Test
+    void testMigrationAndPerUserFiles() throws IOException {
+        User first = new User("Ivan", "pass");
+        first.getWallet().addTransaction(new Transaction("Зарплата", 1000L, TransactionType.INCOME));
+        new JsonFileStorage(LEGACY_FILE).saveAll(List.of(first, new User("petr", "pass")));
+
+        ShardedFileStorage storage = new ShardedFileStorage(SHARD_DIR, Paths.get(LEGACY_FILE));
+
+        assertFalse(new File(LEGACY_FILE).exists());
+        assertTrue(Files.exists(SHARD_DIR.resolve("index.idx")));
+        assertEquals(2, storage.loadAll().size());
+
+        long petrModified = SHARD_DIR.resolve("petr.json").toFile().lastModified();
+        SHARD_DIR.resolve("petr.json").toFile().setLastModified(petrModified - 10_000);
+        first.getWallet().addTransaction(new Transaction("Премия", 500L, TransactionType.INCOME));
+        storage.save(first);
+        storage.append(first, JournalRecord.add(new Transaction("Бонус", 250L, TransactionType.INCOME)));
+
+        assertEquals(petrModified - 10_000, SHARD_DIR.resolve("petr.json").toFile().lastModified());
+        User reloaded = new ShardedFileStorage(SHARD_DIR, null).loadAll().stream()
+                .filter(u -> u.getUsername().equals("Ivan")).findFirst().orElseThrow();
+        assertEquals(1750L, reloaded.getWallet().getTotalIncome());
+    }
+
+    // Файл пользователя index не совпадает с индексом каталога
+    @Test
+    void testUserNamedIndex() {
+        ShardedFileStorage storage = new ShardedFileStorage(SHARD_DIR, null);
+        User index = new User("index", "pass");
+        index.getWallet().addTransaction(new Transaction("Зарплата", 1000L, TransactionType.INCOME));
+        assertTrue(storage.save(index));
+        assertTrue(storage.save(new User("bob", "pass")));
+
+        ShardedFileStorage reopened = new ShardedFileStorage(SHARD_DIR, null);
+        assertEquals(1000L, reopened.load("index").getWallet().getTotalIncome());
+        assertEquals(2, reopened.loadAll().size());
+    }
+
+    // Индекс прежнего формата переносится в index.idx
+    @Test
+    void testLegacyIndexMigrated() throws IOException {
+        assertTrue(new ShardedFileStorage(SHARD_DIR, null).save(new User("bob", "pass")));
+        Files.move(SHARD_DIR.resolve("index.idx"), SHARD_DIR.resolve("index.json"));
+
+        ShardedFileStorage reopened = new ShardedFileStorage(SHARD_DIR, null);
+        assertEquals(1, reopened.loadAll().size());
+        assertTrue(Files.exists(SHARD_DIR.resolve("index.idx")));
+        assertFalse(Files.exists(SHARD_DIR.resolve("index.json")));
+    }
+}